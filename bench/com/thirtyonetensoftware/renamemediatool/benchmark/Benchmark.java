@@ -0,0 +1,32 @@
+package com.thirtyonetensoftware.renamemediatool.benchmark;
+
+import java.nio.file.Path;
+
+/*
+ * one thing to time. setUp() builds whatever it needs under its own directory, then run() is called over and over,
+ * first to warm up the JIT and then to be measured. each run() does getOperations() operations, so runs that are
+ * too quick to time on their own can do a batch.
+ */
+public abstract class Benchmark {
+
+    // ------------------------------------------------------------------------
+    // Public Methods
+    // ------------------------------------------------------------------------
+
+    public abstract String getName();
+
+    public void setUp(Path directory) throws Exception {
+    }
+
+    /**
+     * @param iteration counts up from 0 over warm up and measurement, for benchmarks that need a different input
+     *                  each time
+     * @return anything that depends on the work, so the JIT can't throw the work away
+     */
+    public abstract Object run(int iteration) throws Exception;
+
+    public abstract int getOperations();
+
+    public void tearDown() throws Exception {
+    }
+}
@@ -0,0 +1,220 @@
+package com.thirtyonetensoftware.renamemediatool.benchmark;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/*
+ * runs the benchmarks and appends one JSON line per benchmark to a results file, tagged with the application version,
+ * so runs from different releases can be compared with any JSON tool. build.xml's benchmark target runs this.
+ *
+ *   java -cp ... com.thirtyonetensoftware.renamemediatool.benchmark.BenchmarkRunner [options]
+ *
+ * each benchmark gets its own corpus in a temp directory, is run for the warm up iterations, then timed for the
+ * measured ones. there's no forking, so run with the same JVM flags every time to keep results comparable.
+ */
+public class BenchmarkRunner {
+
+    // ------------------------------------------------------------------------
+    // Class Variables
+    // ------------------------------------------------------------------------
+
+    private static final String USAGE = "usage: BenchmarkRunner [options]\n" +
+            "  --warmup <n>      warm up iterations (default 5)\n" +
+            "  --iterations <n>  measured iterations (default 10)\n" +
+            "  --files <n>       files in each corpus (default 2000)\n" +
+            "  --only <prefix>   only run benchmarks whose name starts with prefix\n" +
+            "  --results <file>  JSON lines file to append to (default bench-results.jsonl)\n";
+
+    // results are consumed here so the JIT can't drop the work that made them
+    private static volatile int mSink;
+
+    // bytes allocated by the measured iterations of the last benchmark, -1 if the JVM can't tell
+    private static long mAllocated;
+
+    // ------------------------------------------------------------------------
+    // Entry Point
+    // ------------------------------------------------------------------------
+
+    public static void main(String[] args) throws Exception {
+        int warmup = 5, iterations = 10, files = 2000;
+        String only = "";
+        Path results = Paths.get("bench-results.jsonl");
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--warmup":
+                        warmup = Integer.parseInt(args[++i]);
+                        break;
+                    case "--iterations":
+                        iterations = Math.max(1, Integer.parseInt(args[++i]));
+                        break;
+                    case "--files":
+                        files = Math.max(1, Integer.parseInt(args[++i]));
+                        break;
+                    case "--only":
+                        only = args[++i];
+                        break;
+                    case "--results":
+                        results = Paths.get(args[++i]);
+                        break;
+                    default:
+                        System.err.print(USAGE);
+                        System.exit(2);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            System.err.print(USAGE);
+            System.exit(2);
+        }
+
+        Path work = Files.createTempDirectory("renamemediatool-bench");
+        // the scan cache and journals go under user.home, keep them out of the real one
+        System.setProperty("user.home", work.resolve("home").toString());
+
+        List<Benchmark> benchmarks = new ArrayList<>();
+        benchmarks.add(new FilenameParseBenchmark(files * 10));
+        benchmarks.add(new DateTimeBenchmark(false, files * 10));
+        benchmarks.add(new DateTimeBenchmark(true, files * 10));
+        benchmarks.add(new DetermineDateTimeBenchmark("jpeg", files));
+        benchmarks.add(new DetermineDateTimeBenchmark("mp4", files));
+        benchmarks.add(new ScanBenchmark(false, files * 5));
+        benchmarks.add(new ScanBenchmark(true, files * 5));
+        benchmarks.add(new CommitDateTimeBenchmark("jpeg", files));
+        benchmarks.add(new CommitDateTimeBenchmark("mp4", files));
+
+        String version = System.getProperty("application.version", "dev");
+        String timestamp = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssXXX").format(new Date());
+
+        System.out.println(String.format("%-28s %14s %14s %14s %14s %10s", "benchmark", "ops/s", "ns/op min",
+                "ns/op median", "ns/op max", "B/op"));
+
+        try {
+            for (Benchmark benchmark : benchmarks) {
+                if (!benchmark.getName().startsWith(only)) {
+                    continue;
+                }
+
+                long[] nanos = measure(benchmark, work.resolve(benchmark.getName()), warmup, iterations);
+                String line = report(benchmark, nanos, version, timestamp);
+                Files.write(results, line.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE,
+                        StandardOpenOption.APPEND);
+            }
+        } finally {
+            delete(work);
+        }
+
+        System.out.println("\nresults appended to " + results.toAbsolutePath());
+    }
+
+    // ------------------------------------------------------------------------
+    // Private Methods
+    // ------------------------------------------------------------------------
+
+    // returns the nanoseconds each measured iteration took
+    private static long[] measure(Benchmark benchmark, Path directory, int warmup, int iterations)
+            throws Exception {
+        Files.createDirectories(directory);
+        benchmark.setUp(directory);
+
+        try {
+            int iteration = 0;
+            for (int i = 0; i < warmup; i++) {
+                consume(benchmark.run(iteration++));
+            }
+
+            long allocated = allocatedBytes();
+
+            long[] nanos = new long[iterations];
+            for (int i = 0; i < iterations; i++) {
+                long start = System.nanoTime();
+                Object result = benchmark.run(iteration++);
+                nanos[i] = System.nanoTime() - start;
+                consume(result);
+            }
+
+            mAllocated = allocated < 0 ? -1 : allocatedBytes() - allocated;
+            return nanos;
+        } finally {
+            benchmark.tearDown();
+            delete(directory);
+        }
+    }
+
+    // only counts this thread, which is fine for the single threaded benchmarks
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static void consume(Object result) {
+        mSink ^= result == null ? 0 : result.hashCode();
+    }
+
+    // prints a row and returns the JSON line for it
+    private static String report(Benchmark benchmark, long[] nanos, String version, String timestamp) {
+        int operations = benchmark.getOperations();
+
+        double[] perOperation = new double[nanos.length];
+        long total = 0;
+        for (int i = 0; i < nanos.length; i++) {
+            perOperation[i] = (double) nanos[i] / operations;
+            total += nanos[i];
+        }
+        Arrays.sort(perOperation);
+
+        double opsPerSecond = (double) operations * nanos.length * 1e9 / total;
+        double min = perOperation[0];
+        double median = perOperation[perOperation.length / 2];
+        double max = perOperation[perOperation.length - 1];
+        double bytes = mAllocated < 0 ? -1 : (double) mAllocated / operations / nanos.length;
+
+        System.out.println(String.format(Locale.ROOT, "%-28s %14.1f %14.1f %14.1f %14.1f %10.1f", benchmark.getName(),
+                opsPerSecond, min, median, max, bytes));
+
+        return String.format(Locale.ROOT, "{\"version\":\"%s\",\"timestamp\":\"%s\",\"java\":\"%s\"," +
+                        "\"os\":\"%s\",\"benchmark\":\"%s\",\"operations\":%d,\"iterations\":%d," +
+                        "\"opsPerSecond\":%.1f,\"nsPerOpMin\":%.1f,\"nsPerOpMedian\":%.1f,\"nsPerOpMax\":%.1f," +
+                        "\"bytesPerOp\":%.1f}\n",
+                version, timestamp, System.getProperty("java.version"), System.getProperty("os.name"),
+                benchmark.getName(), operations, nanos.length, opsPerSecond, min, median, max, bytes);
+    }
+
+    private static void delete(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
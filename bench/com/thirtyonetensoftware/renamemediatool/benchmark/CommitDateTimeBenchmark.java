@@ -0,0 +1,79 @@
+package com.thirtyonetensoftware.renamemediatool.benchmark;
+
+import com.thirtyonetensoftware.renamemediatool.MediaItem;
+import com.thirtyonetensoftware.renamemediatool.ScanEngine;
+import com.thirtyonetensoftware.renamemediatool.support.DateTimes;
+import com.thirtyonetensoftware.renamemediatool.support.FilenameMatcher;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+// MediaItem.commitNewDateTime, with a different date/time every run so each one really writes
+public class CommitDateTimeBenchmark extends Benchmark {
+
+    // ------------------------------------------------------------------------
+    // Instance Variables
+    // ------------------------------------------------------------------------
+
+    private final String mKind;
+
+    private final int mCount;
+
+    private final List<MediaItem> mItems = new ArrayList<>();
+
+    // ------------------------------------------------------------------------
+    // Constructor
+    // ------------------------------------------------------------------------
+
+    /**
+     * @param kind jpeg or mp4
+     */
+    public CommitDateTimeBenchmark(String kind, int count) {
+        mKind = kind;
+        mCount = count;
+    }
+
+    // ------------------------------------------------------------------------
+    // Benchmark Methods
+    // ------------------------------------------------------------------------
+
+    @Override
+    public String getName() {
+        return "commitNewDateTime." + mKind;
+    }
+
+    @Override
+    public void setUp(Path directory) throws Exception {
+        FilenameMatcher matcher = ScanEngine.createFilenameMatcher();
+        List<File> files = mKind.equals("mp4") ? Corpus.mp4s(directory, mCount, 100) :
+                Corpus.jpegs(directory, mCount, 100);
+
+        mItems.clear();
+        for (File file : files) {
+            MediaItem item = new MediaItem(file, matcher);
+            item.determineDateTime(DateTimes.of(ZoneId.systemDefault()));
+            mItems.add(item);
+        }
+    }
+
+    @Override
+    public Object run(int iteration) throws Exception {
+        long sum = 0;
+        for (MediaItem item : mItems) {
+            // a day on each time, the same length in EXIF so jpegs are patched in place like a real commit
+            long dateTime = item.getDateTime() + 86_400_000L;
+            item.setDateTime(dateTime);
+            item.commitNewDateTime(DateTimes.of(ZoneId.systemDefault()));
+            sum += dateTime;
+        }
+        return sum;
+    }
+
+    @Override
+    public int getOperations() {
+        return mCount;
+    }
+}
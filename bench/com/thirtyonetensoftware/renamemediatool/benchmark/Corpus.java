@@ -0,0 +1,188 @@
+package com.thirtyonetensoftware.renamemediatool.benchmark;
+
+import com.thirtyonetensoftware.renamemediatool.support.DateTimes;
+import com.thirtyonetensoftware.renamemediatool.support.ExifDateWriter;
+import org.apache.sanselan.formats.jpeg.exifRewrite.ExifRewriter;
+import org.apache.sanselan.formats.tiff.constants.TiffConstants;
+import org.apache.sanselan.formats.tiff.write.TiffOutputField;
+import org.apache.sanselan.formats.tiff.write.TiffOutputSet;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+/*
+ * synthetic media to benchmark against, made on local disk so nothing has to be checked in. everything is seeded, so
+ * a corpus is the same every run and results can be compared between releases.
+ *
+ * files are spread over directories of perDirectory files each, and dated a few minutes apart from 2015 on, with
+ * every few files sharing a date/time so staggering and numbering have work to do.
+ */
+public class Corpus {
+
+    // ------------------------------------------------------------------------
+    // Class Variables
+    // ------------------------------------------------------------------------
+
+    private static final long SEED = 31;
+
+    private static final long START = 1420070400000L; // 2015-01-01 UTC
+
+    // mvhd times are seconds since 1904-01-01 UTC
+    private static final long SECONDS_1904_TO_1970 = 2082844800L;
+
+    // big enough that a reader that doesn't skip mdat shows up
+    private static final int MDAT_SIZE = 256 * 1024;
+
+    // ------------------------------------------------------------------------
+    // Public Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * jpegs with DateTimeOriginal, named like a camera would
+     */
+    public static List<File> jpegs(Path directory, int count, int perDirectory) throws IOException {
+        byte[] template = jpegTemplate();
+        Random random = new Random(SEED);
+        List<File> files = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            File file = file(directory, i, perDirectory, String.format("DSC%05d.jpg", i));
+            Files.write(file.toPath(), template);
+            if (!ExifDateWriter.patchDateTime(file, dateTime(random, i), DateTimes.of(ZoneId.systemDefault()))) {
+                throw new IOException("couldn't patch the date/time of " + file);
+            }
+            files.add(file);
+        }
+
+        return files;
+    }
+
+    /**
+     * mp4s with a creation time in moov/mvhd, after an mdat that has to be skipped
+     */
+    public static List<File> mp4s(Path directory, int count, int perDirectory) throws IOException {
+        Random random = new Random(SEED);
+        List<File> files = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            File file = file(directory, i, perDirectory, String.format("MOV%05d.mp4", i));
+            Files.write(file.toPath(), mp4(dateTime(random, i)));
+            files.add(file);
+        }
+
+        return files;
+    }
+
+    /**
+     * files with the date/time only in their name, so reading them is all listing and filename parsing
+     */
+    public static List<File> dated(Path directory, int count, int perDirectory) throws IOException {
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd_HHmmss_");
+        Random random = new Random(SEED);
+        List<File> files = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            String name = format.format(new Date(dateTime(random, i))) + String.format("%02d.png", i % 100);
+            File file = file(directory, i, perDirectory, name);
+            Files.write(file.toPath(), new byte[]{'x'});
+            files.add(file);
+        }
+
+        return files;
+    }
+
+    /**
+     * names in every form the filename testers know, and some they don't
+     */
+    public static List<String> filenames(int count) {
+        SimpleDateFormat[] formats = {
+                new SimpleDateFormat("yyyy-MM-dd_HHmmss_'01.jpg'"),
+                new SimpleDateFormat("yyyyMMdd_HHmmss_'02.jpg'"),
+                new SimpleDateFormat("yyyy-MM-dd' birthday.jpg'"),
+                new SimpleDateFormat("yyyy-MM' scans.png'"),
+                new SimpleDateFormat("yyyyMMdd'.mp4'"),
+                new SimpleDateFormat("'IMG_'yyyyMMdd'.jpg'"),
+                new SimpleDateFormat("'DSC'HHmmss'.JPG'")
+        };
+        Random random = new Random(SEED);
+        List<String> filenames = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            filenames.add(formats[i % formats.length].format(new Date(dateTime(random, i))));
+        }
+
+        return filenames;
+    }
+
+    // ------------------------------------------------------------------------
+    // Private Methods
+    // ------------------------------------------------------------------------
+
+    private static File file(Path directory, int index, int perDirectory, String name) throws IOException {
+        Path parent = directory.resolve(String.format("d%04d", index / perDirectory));
+        Files.createDirectories(parent);
+        return parent.resolve(name).toFile();
+    }
+
+    // a few minutes apart, every fourth file on the same second as the one before it
+    private static long dateTime(Random random, int index) {
+        return START + (index - index / 4) * 180_000L + (random.nextInt(180) * 1000L);
+    }
+
+    private static byte[] jpegTemplate() throws IOException {
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB), "jpg", plain);
+
+        try {
+            // a placeholder date/time, patched in place for each file
+            byte[] value = "2000:01:01 00:00:00\0".getBytes(StandardCharsets.US_ASCII);
+            TiffOutputSet set = new TiffOutputSet();
+            set.getOrCreateExifDirectory().add(new TiffOutputField(TiffConstants.EXIF_TAG_DATE_TIME_ORIGINAL,
+                    TiffConstants.FIELD_TYPE_ASCII, value.length, value));
+            set.getOrCreateExifDirectory().add(new TiffOutputField(TiffConstants.EXIF_TAG_CREATE_DATE,
+                    TiffConstants.FIELD_TYPE_ASCII, value.length, value));
+
+            ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+            new ExifRewriter().updateExifMetadataLossless(plain.toByteArray(), jpeg, set);
+            return jpeg.toByteArray();
+        } catch (Exception e) {
+            throw new IOException("couldn't make the jpeg template", e);
+        }
+    }
+
+    private static byte[] mp4(long dateTime) {
+        ByteBuffer buffer = ByteBuffer.allocate(24 + 8 + MDAT_SIZE + 8 + 108);
+
+        // ftyp
+        buffer.putInt(24).put(type("ftyp")).put(type("isom")).putInt(0x200).put(type("isom")).put(type("mp41"));
+
+        // mdat, left as zeros
+        buffer.putInt(8 + MDAT_SIZE).put(type("mdat"));
+        buffer.position(buffer.position() + MDAT_SIZE);
+
+        // moov with a version 0 mvhd. only the times matter, the rest are zeros
+        buffer.putInt(8 + 108).put(type("moov"));
+        buffer.putInt(108).put(type("mvhd"));
+        long seconds = dateTime / 1000 + SECONDS_1904_TO_1970;
+        buffer.putInt(0).putInt((int) seconds).putInt((int) seconds).putInt(1000);
+
+        return buffer.array();
+    }
+
+    private static byte[] type(String type) {
+        return type.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
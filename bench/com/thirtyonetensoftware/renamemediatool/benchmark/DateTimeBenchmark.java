@@ -0,0 +1,145 @@
+package com.thirtyonetensoftware.renamemediatool.benchmark;
+
+import com.thirtyonetensoftware.renamemediatool.MediaItem;
+import com.thirtyonetensoftware.renamemediatool.support.DateTimes;
+
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.ZoneId;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Random;
+
+/*
+ * the per-file date/time work: parse an EXIF value, check it against the previous file's second for numbering, make
+ * the new filename and format the value written back. legacy does it the way it was done before DateTimes, with
+ * shared SimpleDateFormats and a Calendar, so the two can be compared on the same machine.
+ */
+public class DateTimeBenchmark extends Benchmark {
+
+    // ------------------------------------------------------------------------
+    // Instance Variables
+    // ------------------------------------------------------------------------
+
+    private final boolean mLegacy;
+
+    private final int mCount;
+
+    private final SimpleDateFormat mExifFormat = new SimpleDateFormat("yyyy:MM:dd HH:mm:ss");
+
+    private final SimpleDateFormat mFilenameFormat = new SimpleDateFormat("yyyy-MM-dd_HHmmss_");
+
+    private String[] mValues;
+
+    // ------------------------------------------------------------------------
+    // Constructor
+    // ------------------------------------------------------------------------
+
+    public DateTimeBenchmark(boolean legacy, int count) {
+        mLegacy = legacy;
+        mCount = count;
+    }
+
+    // ------------------------------------------------------------------------
+    // Benchmark Methods
+    // ------------------------------------------------------------------------
+
+    @Override
+    public String getName() {
+        return mLegacy ? "datetime.legacy" : "datetime";
+    }
+
+    @Override
+    public void setUp(Path directory) {
+        // a few files a second, like a burst, so the numbering check matches about half the time
+        Random random = new Random(31);
+        long dateTime = 1420070400000L;
+
+        mValues = new String[mCount];
+        for (int i = 0; i < mCount; i++) {
+            dateTime += random.nextInt(2000);
+            mValues[i] = mExifFormat.format(new Date(dateTime));
+        }
+    }
+
+    @Override
+    public Object run(int iteration) throws Exception {
+        return mLegacy ? runLegacy() : runDateTimes();
+    }
+
+    @Override
+    public int getOperations() {
+        return mCount;
+    }
+
+    // ------------------------------------------------------------------------
+    // Private Methods
+    // ------------------------------------------------------------------------
+
+    private long runDateTimes() {
+        StringBuilder exif = new StringBuilder(19);
+        long sum = 0;
+        long previous = Long.MIN_VALUE;
+        int count = 0;
+        DateTimes dateTimes = DateTimes.of(ZoneId.systemDefault());
+
+        for (String value : mValues) {
+            long dateTime = dateTimes.parseExif(value);
+
+            long second = dateTimes.localSecond(dateTime);
+            count = second == previous ? count + 1 : 1;
+            previous = second;
+
+            exif.setLength(0);
+            dateTimes.appendExif(exif, dateTime);
+
+            sum += MediaItem.newFilename("IMG_0001.JPG", dateTime, count, dateTimes).length() + exif.length();
+        }
+        return sum;
+    }
+
+    private long runLegacy() throws ParseException {
+        Calendar calendar = Calendar.getInstance();
+        long sum = 0;
+        int previousYear = -1, previousDay = -1, previousHour = -1, previousMinute = -1, previousSecond = -1;
+        int count = 0;
+
+        for (String value : mValues) {
+            Date dateTime;
+            synchronized (mExifFormat) {
+                dateTime = mExifFormat.parse(value);
+            }
+
+            calendar.setTime(dateTime);
+            if (calendar.get(Calendar.YEAR) == previousYear && calendar.get(Calendar.DAY_OF_YEAR) == previousDay
+                    && calendar.get(Calendar.HOUR_OF_DAY) == previousHour
+                    && calendar.get(Calendar.MINUTE) == previousMinute
+                    && calendar.get(Calendar.SECOND) == previousSecond) {
+                count++;
+            } else {
+                count = 1;
+            }
+            previousYear = calendar.get(Calendar.YEAR);
+            previousDay = calendar.get(Calendar.DAY_OF_YEAR);
+            previousHour = calendar.get(Calendar.HOUR_OF_DAY);
+            previousMinute = calendar.get(Calendar.MINUTE);
+            previousSecond = calendar.get(Calendar.SECOND);
+
+            String exif;
+            synchronized (mExifFormat) {
+                exif = mExifFormat.format(dateTime);
+            }
+
+            String base;
+            synchronized (mFilenameFormat) {
+                base = mFilenameFormat.format(new Date(dateTime.getTime()));
+            }
+            String name = "IMG_0001.JPG";
+            String filename = base + String.format("%02d", count) + name.substring(name.lastIndexOf(".")).toLowerCase();
+
+            sum += filename.length() + exif.length();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,72 @@
+package com.thirtyonetensoftware.renamemediatool.benchmark;
+
+import com.thirtyonetensoftware.renamemediatool.MediaItem;
+import com.thirtyonetensoftware.renamemediatool.ScanEngine;
+import com.thirtyonetensoftware.renamemediatool.support.DateTimes;
+import com.thirtyonetensoftware.renamemediatool.support.FilenameMatcher;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.time.ZoneId;
+import java.util.List;
+
+// MediaItem.determineDateTime without the scan cache, so every file is opened and read
+public class DetermineDateTimeBenchmark extends Benchmark {
+
+    // ------------------------------------------------------------------------
+    // Instance Variables
+    // ------------------------------------------------------------------------
+
+    private final String mKind;
+
+    private final int mCount;
+
+    private FilenameMatcher mMatcher;
+
+    private List<File> mFiles;
+
+    // ------------------------------------------------------------------------
+    // Constructor
+    // ------------------------------------------------------------------------
+
+    /**
+     * @param kind jpeg or mp4
+     */
+    public DetermineDateTimeBenchmark(String kind, int count) {
+        mKind = kind;
+        mCount = count;
+    }
+
+    // ------------------------------------------------------------------------
+    // Benchmark Methods
+    // ------------------------------------------------------------------------
+
+    @Override
+    public String getName() {
+        return "determineDateTime." + mKind;
+    }
+
+    @Override
+    public void setUp(Path directory) throws Exception {
+        mMatcher = ScanEngine.createFilenameMatcher();
+        mFiles = mKind.equals("mp4") ? Corpus.mp4s(directory, mCount, 100) : Corpus.jpegs(directory, mCount, 100);
+    }
+
+    @Override
+    public Object run(int iteration) {
+        long sum = 0;
+        for (File file : mFiles) {
+            MediaItem item = new MediaItem(file, mMatcher);
+            if (!item.determineDateTime(DateTimes.of(ZoneId.systemDefault()))) {
+                throw new IllegalStateException(item.getErrorMessage());
+            }
+            sum += item.getDateTime();
+        }
+        return sum;
+    }
+
+    @Override
+    public int getOperations() {
+        return mCount;
+    }
+}
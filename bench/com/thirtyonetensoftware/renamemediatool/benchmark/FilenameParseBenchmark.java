@@ -0,0 +1,62 @@
+package com.thirtyonetensoftware.renamemediatool.benchmark;
+
+import com.thirtyonetensoftware.renamemediatool.ScanEngine;
+import com.thirtyonetensoftware.renamemediatool.support.FilenameMatcher;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+
+// the FilenameTesters, through the same matcher the scan uses, over a mix of names
+public class FilenameParseBenchmark extends Benchmark {
+
+    // ------------------------------------------------------------------------
+    // Instance Variables
+    // ------------------------------------------------------------------------
+
+    private final int mCount;
+
+    private FilenameMatcher mMatcher;
+
+    private List<String> mFilenames;
+
+    // ------------------------------------------------------------------------
+    // Constructor
+    // ------------------------------------------------------------------------
+
+    public FilenameParseBenchmark(int count) {
+        mCount = count;
+    }
+
+    // ------------------------------------------------------------------------
+    // Benchmark Methods
+    // ------------------------------------------------------------------------
+
+    @Override
+    public String getName() {
+        return "filename.parse";
+    }
+
+    @Override
+    public void setUp(Path directory) {
+        mMatcher = ScanEngine.createFilenameMatcher();
+        mFilenames = Corpus.filenames(mCount);
+    }
+
+    @Override
+    public Object run(int iteration) {
+        int matched = 0;
+        for (String filename : mFilenames) {
+            LocalDateTime dateTime = mMatcher.parse(filename);
+            if (dateTime != null) {
+                matched += dateTime.getSecond();
+            }
+        }
+        return matched;
+    }
+
+    @Override
+    public int getOperations() {
+        return mCount;
+    }
+}
@@ -0,0 +1,96 @@
+package com.thirtyonetensoftware.renamemediatool.benchmark;
+
+import com.thirtyonetensoftware.renamemediatool.ChangeSet;
+import com.thirtyonetensoftware.renamemediatool.EngineListener;
+import com.thirtyonetensoftware.renamemediatool.ScanEngine;
+import com.thirtyonetensoftware.renamemediatool.ScanOptions;
+
+import java.io.File;
+import java.nio.file.Path;
+
+/*
+ * a whole ScanEngine run with staggering on. with the cache warmed up every date/time comes from the cache, which
+ * leaves listing, sorting, staggering and numbering, the work ProcessWorker used to do itself.
+ */
+public class ScanBenchmark extends Benchmark {
+
+    // ------------------------------------------------------------------------
+    // Class Variables
+    // ------------------------------------------------------------------------
+
+    private static final EngineListener QUIET = new EngineListener() {
+        @Override
+        public void onMessage(String text) {
+        }
+
+        @Override
+        public void onProgress(long workDone, long max) {
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    };
+
+    // ------------------------------------------------------------------------
+    // Instance Variables
+    // ------------------------------------------------------------------------
+
+    private final boolean mCached;
+
+    private final int mCount;
+
+    private File mDirectory;
+
+    private ScanOptions mOptions;
+
+    // ------------------------------------------------------------------------
+    // Constructor
+    // ------------------------------------------------------------------------
+
+    public ScanBenchmark(boolean cached, int count) {
+        mCached = cached;
+        mCount = count;
+    }
+
+    // ------------------------------------------------------------------------
+    // Benchmark Methods
+    // ------------------------------------------------------------------------
+
+    @Override
+    public String getName() {
+        return mCached ? "scan.cached" : "scan.uncached";
+    }
+
+    @Override
+    public void setUp(Path directory) throws Exception {
+        Corpus.dated(directory, mCount, 500);
+        mDirectory = directory.toFile();
+
+        mOptions = new ScanOptions();
+        mOptions.setStaggerDateTimes(true);
+        mOptions.setUseCache(mCached);
+
+        if (mCached) {
+            // fills the cache
+            run(0);
+        }
+    }
+
+    @Override
+    public Object run(int iteration) throws Exception {
+        try (ChangeSet changeSet = new ChangeSet(mOptions.getZone())) {
+            int issues = new ScanEngine(mDirectory, mOptions, changeSet, QUIET).run();
+            if (issues > 0) {
+                throw new IllegalStateException(issues + " issues scanning " + mDirectory);
+            }
+            return changeSet.size();
+        }
+    }
+
+    @Override
+    public int getOperations() {
+        return mCount;
+    }
+}
@@ -0,0 +1,606 @@
+package com.thirtyonetensoftware.renamemediatool;
+
+import com.thirtyonetensoftware.renamemediatool.support.DateTimes;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.DateTimeException;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.UUID;
+
+/*
+ * the changes a scan found, stored by column instead of as one MediaItem per file so millions of changes stay small
+ * and don't churn the garbage collector. each field is a column of fixed width values, directories are stored once
+ * and referenced by id, and file names go in one length prefixed utf-8 column.
+ *
+ * new filenames are worked out again from the date/time and count when they're needed, and temp names from the
+ * run id, so neither is stored. columns are kept on the heap until the heap budget is used up, after that new
+ * segments are memory mapped from a temp file.
+ *
+ * save() writes the columns out as they are to a snapshot file, and load() maps them straight back, so a scan can be
+ * planned in one run and committed in another. a loaded change set can't be added to.
+ *
+ * written by one thread (the scan), after that any number of threads can read it.
+ */
+public class ChangeSet implements Closeable {
+
+    // ------------------------------------------------------------------------
+    // Class Variables
+    // ------------------------------------------------------------------------
+
+    public static final long DEFAULT_HEAP_BUDGET = Runtime.getRuntime().maxMemory() / 4;
+
+    private static final int SEGMENT_SHIFT = 18;
+    private static final int SEGMENT_BYTES = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_BYTES - 1;
+
+    private static final int SNAPSHOT_MAGIC = 0x524D5453; // RMTS
+
+    // bump when the header, the columns, or DateSource change
+    private static final int SNAPSHOT_VERSION = 4;
+
+    // magic, version and header length
+    private static final int SNAPSHOT_PREFIX = 12;
+
+    // ------------------------------------------------------------------------
+    // Instance Variables
+    // ------------------------------------------------------------------------
+
+    private final long mHeapBudget;
+
+    private long mHeapBytes = 0;
+
+    private FileChannel mSpill;
+
+    private long mSpillBytes = 0;
+
+    // when the scan that found the changes started
+    private long mCreated = System.currentTimeMillis();
+
+    // the zone the scan's local date/times were read in, committing has to write them in the same one
+    private final DateTimes mDateTimes;
+
+    // true if it was loaded from a snapshot
+    private boolean mReadOnly = false;
+
+    // makes this run's temp names different from any other run's
+    private final String mRunId = UUID.randomUUID().toString().substring(0, 8);
+
+    private final ArrayList<String> mDirectories = new ArrayList<>();
+
+    private final HashMap<String, Integer> mDirectoryIds = new HashMap<>();
+
+    private final Column mDirectory = new Column(4);
+
+    // where each file's name starts in mNames
+    private final Column mName = new Column(8);
+
+    private final Column mNames = new Column(1);
+
+    private final Column mDateTime = new Column(8);
+
+    private final Column mLastModified = new Column(8);
+
+    // DateTimes.NONE if the file system doesn't keep one
+    private final Column mDateCreated = new Column(8);
+
+    private final Column mFileSize = new Column(8);
+
+    // DateTimes.NONE if the file hasn't got one
+    private final Column mMetadataDateTime = new Column(8);
+
+    // 1 if the file's format keeps a date/time that can be written
+    private final Column mMetadataWritable = new Column(1);
+
+    // 0 if the file keeps its name
+    private final Column mCount = new Column(4);
+
+    // id of the directory the file moves to, -1 if it stays where it is
+    private final Column mNewDirectory = new Column(4);
+
+    private final Column mSource = new Column(1);
+
+    private int mSize = 0;
+
+    // ------------------------------------------------------------------------
+    // Constructors
+    // ------------------------------------------------------------------------
+
+    /**
+     * @param zone the zone the scan reads local date/times in, and the commit writes them in
+     */
+    public ChangeSet(ZoneId zone) {
+        this(zone, DEFAULT_HEAP_BUDGET);
+    }
+
+    /**
+     * @param heapBudget bytes to keep on the heap before spilling to a memory mapped file
+     */
+    public ChangeSet(ZoneId zone, long heapBudget) {
+        mDateTimes = DateTimes.of(zone);
+        mHeapBudget = heapBudget;
+    }
+
+    // ------------------------------------------------------------------------
+    // Public Methods
+    // ------------------------------------------------------------------------
+
+    public void add(MediaItem item) throws IOException {
+        if (mReadOnly) {
+            throw new IllegalStateException("a change set loaded from a snapshot can't be added to");
+        }
+
+        int directoryId = directoryId(item.getDirectory());
+        String newDirectory = item.getNewDirectory();
+
+        long index = mSize;
+
+        mDirectory.putInt(index, directoryId);
+        mName.putLong(index, mNames.putString(item.getFilename()));
+        mDateTime.putLong(index, item.getDateTime());
+        mLastModified.putLong(index, item.getLastModified());
+        mDateCreated.putLong(index, item.getDateCreated());
+        mFileSize.putLong(index, item.getSize());
+        mMetadataDateTime.putLong(index, item.getMetadataDateTime());
+        mMetadataWritable.putByte(index, (byte) (item.isMetadataWritable() ? 1 : 0));
+        mCount.putInt(index, item.getNewFilenameCount());
+        mNewDirectory.putInt(index, newDirectory == null ? -1 : directoryId(newDirectory));
+        mSource.putByte(index, (byte) item.getDateSource().ordinal());
+
+        mSize++;
+    }
+
+    /**
+     * maps a snapshot written by save() back in. the columns are read straight from the mapping, nothing is copied
+     */
+    public static ChangeSet load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer prefix = ByteBuffer.allocate(SNAPSHOT_PREFIX);
+            if (channel.size() < SNAPSHOT_PREFIX) {
+                throw new IOException("Not a change set snapshot: " + file);
+            }
+            readFully(channel, prefix, 0);
+            if (prefix.getInt(0) != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a change set snapshot: " + file);
+            }
+            if (prefix.getInt(4) != SNAPSHOT_VERSION) {
+                throw new IOException("Change set snapshot " + file + " is version " + prefix.getInt(4) +
+                        ", only version " + SNAPSHOT_VERSION + " can be read");
+            }
+
+            int headerLength = prefix.getInt(8);
+            if (headerLength < 0 || SNAPSHOT_PREFIX + headerLength > channel.size()) {
+                throw new EOFException("Change set snapshot " + file + " is truncated");
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(headerLength);
+            readFully(channel, header, SNAPSHOT_PREFIX);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(header.array()));
+
+            long created = in.readLong();
+            String zone = in.readUTF();
+            ChangeSet changeSet;
+            try {
+                changeSet = new ChangeSet(ZoneId.of(zone), 0);
+            } catch (DateTimeException e) {
+                throw new IOException("Change set snapshot " + file + " is in zone " + zone +
+                        ", which this Java doesn't know", e);
+            }
+            changeSet.mReadOnly = true;
+            changeSet.mCreated = created;
+            changeSet.mSize = in.readInt();
+            for (int i = in.readInt(); i > 0; i--) {
+                changeSet.directoryId(in.readUTF());
+            }
+
+            long position = SNAPSHOT_PREFIX + header.capacity();
+            for (Column column : changeSet.columns()) {
+                long length = in.readLong();
+                if (position + length > channel.size()) {
+                    throw new EOFException("Change set snapshot " + file + " is truncated");
+                }
+                column.map(channel, position, length);
+                position += length;
+            }
+
+            // the mappings stay valid after the channel's closed
+            return changeSet;
+        }
+    }
+
+    /**
+     * writes the changes to a snapshot file for load(), replacing it if it's there. directories are written as
+     * absolute paths, so it can be loaded from anywhere.
+     */
+    public void save(Path file) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(header)) {
+            out.writeLong(mCreated);
+            out.writeUTF(getZone().getId());
+            out.writeInt(mSize);
+            out.writeInt(mDirectories.size());
+            for (String directory : mDirectories) {
+                out.writeUTF(new File(directory).getAbsolutePath());
+            }
+            for (Column column : columns()) {
+                out.writeLong(column.mLength);
+            }
+        }
+
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer prefix = ByteBuffer.allocate(SNAPSHOT_PREFIX);
+            prefix.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putInt(header.size()).flip();
+            writeFully(channel, prefix);
+            writeFully(channel, ByteBuffer.wrap(header.toByteArray()));
+
+            for (Column column : columns()) {
+                column.write(channel);
+            }
+            channel.force(true);
+        }
+
+        try {
+            Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // when the scan that found the changes started
+    public long getCreated() {
+        return mCreated;
+    }
+
+    public ZoneId getZone() {
+        return mDateTimes.getZone();
+    }
+
+    // reads and writes local date/times in getZone()
+    public DateTimes getDateTimes() {
+        return mDateTimes;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * @return a MediaItem for the change, with the temp name for this run. made fresh each call
+     */
+    public MediaItem get(int index) {
+        return new MediaItem(new File(getFilepath(index)), getDateTime(index), getDateCreated(index),
+                getLastModified(index), getFileSize(index), getMetadataDateTime(index), isMetadataWritable(index),
+                getDateSource(index), getNewFilename(index), hasNewFilename(index) ? getTempFilename(index) : null,
+                getNewDirectory(index));
+    }
+
+    public int getDirectoryId(int index) {
+        return mDirectory.getInt(index);
+    }
+
+    public int getDirectoryCount() {
+        return mDirectories.size();
+    }
+
+    public String getDirectory(int index) {
+        return mDirectories.get(getDirectoryId(index));
+    }
+
+    public String getName(int index) {
+        return mNames.getString(mName.getLong(index));
+    }
+
+    public String getFilepath(int index) {
+        return getDirectory(index) + File.separator + getName(index);
+    }
+
+    public long getDateTime(int index) {
+        return mDateTime.getLong(index);
+    }
+
+    public long getLastModified(int index) {
+        return mLastModified.getLong(index);
+    }
+
+    public long getDateCreated(int index) {
+        return mDateCreated.getLong(index);
+    }
+
+    public long getFileSize(int index) {
+        return mFileSize.getLong(index);
+    }
+
+    public long getMetadataDateTime(int index) {
+        return mMetadataDateTime.getLong(index);
+    }
+
+    public boolean isMetadataWritable(int index) {
+        return mMetadataWritable.getByte(index) != 0;
+    }
+
+    /**
+     * a stat, no reading
+     *
+     * @return true if the file is still the size and has the lastModified it had when it was scanned. false if it's
+     * changed or gone since, and what was planned for it can't be trusted
+     */
+    public boolean isUnchanged(int index) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(Paths.get(getFilepath(index)),
+                    BasicFileAttributes.class);
+            return attributes.size() == getFileSize(index) &&
+                    attributes.lastModifiedTime().toMillis() == getLastModified(index);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public DateSource getDateSource(int index) {
+        return DateSource.values()[mSource.getByte(index)];
+    }
+
+    public boolean hasNewDateTime(int index) {
+        return getDateTargets(index) != 0;
+    }
+
+    // MediaItem's TARGET_ flags, see MediaItem.getDateTargets()
+    public int getDateTargets(int index) {
+        return MediaItem.dateTargets(getDateTime(index), getMetadataDateTime(index), isMetadataWritable(index),
+                getLastModified(index), getDateCreated(index));
+    }
+
+    // true for a file that moves to another directory too, even if it keeps its name
+    public boolean hasNewFilename(int index) {
+        return mCount.getInt(index) > 0 || mNewDirectory.getInt(index) >= 0;
+    }
+
+    public String getNewFilename(int index) {
+        int count = mCount.getInt(index);
+        if (count > 0) {
+            return MediaItem.newFilename(getName(index), getDateTime(index), count, mDateTimes);
+        }
+        return mNewDirectory.getInt(index) >= 0 ? getName(index) : null;
+    }
+
+    // null if the file stays in its directory
+    public String getNewDirectory(int index) {
+        int newDirectory = mNewDirectory.getInt(index);
+        return newDirectory >= 0 ? mDirectories.get(newDirectory) : null;
+    }
+
+    public String getTempFilename(int index) {
+        return getNewFilename(index) + "." + mRunId + ".temp";
+    }
+
+    public String getNewFilepath(int index) {
+        String newDirectory = getNewDirectory(index);
+        return (newDirectory != null ? newDirectory : getDirectory(index)) + File.separator + getNewFilename(index);
+    }
+
+    public String getTempFilepath(int index) {
+        return getDirectory(index) + File.separator + getTempFilename(index);
+    }
+
+    /**
+     * @return every index, grouped by directory in the order directories were first added, and in the order they
+     * were added within each directory
+     */
+    public int[] sortedByDirectory() {
+        int[] starts = new int[mDirectories.size() + 1];
+        for (int i = 0; i < mSize; i++) {
+            starts[getDirectoryId(i) + 1]++;
+        }
+        for (int i = 1; i < starts.length; i++) {
+            starts[i] += starts[i - 1];
+        }
+
+        int[] sorted = new int[mSize];
+        for (int i = 0; i < mSize; i++) {
+            sorted[starts[getDirectoryId(i)]++] = i;
+        }
+
+        return sorted;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mSpill != null) {
+            // the mappings go when they're garbage collected, the file goes now
+            mSpill.close();
+            mSpill = null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Private Methods
+    // ------------------------------------------------------------------------
+
+    private int directoryId(String directory) {
+        Integer directoryId = mDirectoryIds.get(directory);
+        if (directoryId == null) {
+            directoryId = mDirectories.size();
+            mDirectories.add(directory);
+            mDirectoryIds.put(directory, directoryId);
+        }
+        return directoryId;
+    }
+
+    // in the order they're written to a snapshot
+    private Column[] columns() {
+        return new Column[]{mDirectory, mName, mNames, mDateTime, mLastModified, mDateCreated, mFileSize,
+                mMetadataDateTime, mMetadataWritable, mCount, mNewDirectory, mSource};
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private ByteBuffer allocateSegment() throws IOException {
+        if (mHeapBytes + SEGMENT_BYTES <= mHeapBudget) {
+            mHeapBytes += SEGMENT_BYTES;
+            return ByteBuffer.allocate(SEGMENT_BYTES);
+        }
+
+        if (mSpill == null) {
+            Path spill = Files.createTempFile("renamemediatool-", ".changes");
+            mSpill = FileChannel.open(spill, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE);
+        }
+
+        ByteBuffer segment = mSpill.map(FileChannel.MapMode.READ_WRITE, mSpillBytes, SEGMENT_BYTES);
+        mSpillBytes += SEGMENT_BYTES;
+        return segment;
+    }
+
+    // ------------------------------------------------------------------------
+    // Column
+    // ------------------------------------------------------------------------
+
+    /*
+     * values in fixed size segments. widths are powers of two so a value never straddles two segments, strings
+     * that wouldn't fit at the end of a segment start the next one.
+     */
+    private class Column {
+
+        private final int mWidth;
+
+        private final ArrayList<ByteBuffer> mSegments = new ArrayList<>();
+
+        // bytes used
+        private long mLength = 0;
+
+        Column(int width) {
+            mWidth = width;
+        }
+
+        void putByte(long index, byte value) throws IOException {
+            long position = index * mWidth;
+            reserve(position + mWidth);
+            segment(position).put(offset(position), value);
+        }
+
+        void putInt(long index, int value) throws IOException {
+            long position = index * mWidth;
+            reserve(position + mWidth);
+            segment(position).putInt(offset(position), value);
+        }
+
+        void putLong(long index, long value) throws IOException {
+            long position = index * mWidth;
+            reserve(position + mWidth);
+            segment(position).putLong(offset(position), value);
+        }
+
+        byte getByte(long index) {
+            long position = index * mWidth;
+            return segment(position).get(offset(position));
+        }
+
+        int getInt(long index) {
+            long position = index * mWidth;
+            return segment(position).getInt(offset(position));
+        }
+
+        long getLong(long index) {
+            long position = index * mWidth;
+            return segment(position).getLong(offset(position));
+        }
+
+        // returns where the string starts
+        long putString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            int length = 2 + bytes.length;
+
+            long position = mLength;
+            if (offset(position) + length > SEGMENT_BYTES) {
+                position = ((position >>> SEGMENT_SHIFT) + 1) << SEGMENT_SHIFT;
+            }
+            reserve(position + length);
+
+            ByteBuffer buffer = segment(position).duplicate();
+            buffer.position(offset(position));
+            buffer.putShort((short) bytes.length);
+            buffer.put(bytes);
+
+            mLength = position + length;
+            return position;
+        }
+
+        String getString(long position) {
+            ByteBuffer buffer = segment(position).duplicate();
+            buffer.position(offset(position));
+
+            byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(bytes);
+
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        // the used bytes, segment by segment
+        void write(FileChannel channel) throws IOException {
+            for (int i = 0; ((long) i << SEGMENT_SHIFT) < mLength; i++) {
+                ByteBuffer buffer = mSegments.get(i).duplicate();
+                buffer.clear().limit((int) Math.min(SEGMENT_BYTES, mLength - ((long) i << SEGMENT_SHIFT)));
+                writeFully(channel, buffer);
+            }
+        }
+
+        // read only, a segment per mapping so values are where write() found them
+        void map(FileChannel channel, long position, long length) throws IOException {
+            for (long offset = 0; offset < length; offset += SEGMENT_BYTES) {
+                mSegments.add(channel.map(FileChannel.MapMode.READ_ONLY, position + offset,
+                        Math.min(SEGMENT_BYTES, length - offset)));
+            }
+            mLength = length;
+        }
+
+        private void reserve(long end) throws IOException {
+            while (((long) mSegments.size() << SEGMENT_SHIFT) < end) {
+                mSegments.add(allocateSegment());
+            }
+            mLength = Math.max(mLength, end);
+        }
+
+        private ByteBuffer segment(long position) {
+            return mSegments.get((int) (position >>> SEGMENT_SHIFT));
+        }
+
+        private int offset(long position) {
+            return (int) (position & SEGMENT_MASK);
+        }
+    }
+}
@@ -0,0 +1,537 @@
+package com.thirtyonetensoftware.renamemediatool;
+
+import com.thirtyonetensoftware.renamemediatool.support.ChangeReport;
+import com.thirtyonetensoftware.renamemediatool.support.CommitJournal;
+import com.thirtyonetensoftware.renamemediatool.support.DateTimes;
+import com.thirtyonetensoftware.renamemediatool.support.IoScheduler;
+import com.thirtyonetensoftware.renamemediatool.support.Json;
+import com.thirtyonetensoftware.renamemediatool.support.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.DateTimeException;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+
+/*
+ * command line entry point. runs the same scan and commit as the JavaFX app, but never loads JavaFX, so it works on
+ * headless machines and from cron:
+ *
+ *   java -cp RenameMediaTool.jar com.thirtyonetensoftware.renamemediatool.Cli [options] <directory>
+ *
+ * exit status is 0 if everything went through, 1 if there were issues, 2 for bad arguments.
+ */
+public class Cli implements EngineListener {
+
+    // ------------------------------------------------------------------------
+    // Class Variables
+    // ------------------------------------------------------------------------
+
+    private static final int EXIT_OK = 0;
+    private static final int EXIT_ISSUES = 1;
+    private static final int EXIT_USAGE = 2;
+
+    private static final String USAGE = "usage: Cli [options] <directory>\n" +
+            "       Cli --commit-plan <file>\n" +
+            "       Cli --recover | --rollback\n" +
+            "  --dry-run       scan and print the changes, but don't write them\n" +
+            "  --stagger       stagger date/times of files with the same date/time\n" +
+            "  --stagger-seconds <n>\n" +
+            "                  seconds between staggered files (default " + ScanOptions.DEFAULT_STAGGER_SECONDS + ")\n" +
+            "  --stagger-overflow push|overlap\n" +
+            "                  when staggered files reach a later file's date/time, move the later files on too\n" +
+            "                  (push, the default) or leave them (overlap)\n" +
+            "  --global-order  number files with the same date/time across the whole tree, not per directory\n" +
+            "  --relocate      move files into yyyy/MM directories under <directory>, implies --global-order\n" +
+            "  --duplicates report|skip\n" +
+            "                  look for files with the same contents as one scanned before them, and print them\n" +
+            "                  (report) or print them and leave them unchanged (skip)\n" +
+            "  --zone <zone>   time zone date/times without an offset are read and written in, e.g. Europe/Berlin\n" +
+            "                  or +02:00 (default the system's, " + ZoneId.systemDefault() + ")\n" +
+            "  --threads <n>   number of threads to scan and write with (default " + ScanOptions.DEFAULT_THREADS + ")\n" +
+            "  --io-threads [<store>=]<n>\n" +
+            "                  most files worked on at once per disk or share, e.g. 2, or nfs=1 or /dev/sdb1=1 for\n" +
+            "                  the stores of that type or name (default no limit, only --threads)\n" +
+            "  --io-rate [<store>=]<bytes>\n" +
+            "                  most bytes read or written a second per disk or share, e.g. 20M or cifs=5M\n" +
+            "                  (default no limit)\n" +
+            "  --io-order      work on files in the order they sit on disk, a directory at a time\n" +
+            "  --no-cache      don't use or update the scan cache\n" +
+            "  --report <file> write every planned change to a file as it's found, JSON lines if the file ends in\n" +
+            "                  .jsonl or .json, otherwise CSV\n" +
+            "  --json          print changes and a summary as JSON lines on stdout, messages go to stderr\n" +
+            "  --save-plan <file>\n" +
+            "                  save the changes to a plan file instead of writing them, for --commit-plan\n" +
+            "  --commit-plan <file>\n" +
+            "                  write the changes in a plan file saved by --save-plan. files that changed since\n" +
+            "                  the scan are skipped\n" +
+            "  --watch         keep running, renaming files as they arrive, until stopped\n" +
+            "  --watch-quiet <n>\n" +
+            "                  seconds a directory has to go without changes before it's renamed (default " +
+            WatchEngine.DEFAULT_QUIET_SECONDS + ")\n" +
+            "  --watch-reconcile <n>\n" +
+            "                  minutes between full scans while watching (default " +
+            WatchEngine.DEFAULT_RECONCILE_MINUTES + ")\n" +
+            "  --watch-batch <n>\n" +
+            "                  most directories renamed together while watching (default " +
+            WatchEngine.DEFAULT_BATCH_DIRECTORIES + ")\n" +
+            "  --recover       finish any commits that were interrupted, using their journals\n" +
+            "  --rollback      undo any commits that were interrupted, using their journals\n";
+
+    // ------------------------------------------------------------------------
+    // Instance Variables
+    // ------------------------------------------------------------------------
+
+    private final boolean mJson;
+
+    // the zone of the run, for the date/times printed
+    private final DateTimes mDateTimes;
+
+    private final PrintStream mOut = System.out;
+
+    // human readable messages. kept off stdout when it's carrying json
+    private final PrintStream mMessages;
+
+    // ------------------------------------------------------------------------
+    // Constructor
+    // ------------------------------------------------------------------------
+
+    private Cli(boolean json, ZoneId zone) {
+        mJson = json;
+        mDateTimes = DateTimes.of(zone);
+        mMessages = json ? System.err : System.out;
+    }
+
+    // ------------------------------------------------------------------------
+    // Entry Point
+    // ------------------------------------------------------------------------
+
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    public static int run(String[] args) {
+        ScanOptions options = new ScanOptions();
+        boolean dryRun = false, json = false, recover = false, rollback = false, watch = false;
+        int quietSeconds = WatchEngine.DEFAULT_QUIET_SECONDS;
+        int reconcileMinutes = WatchEngine.DEFAULT_RECONCILE_MINUTES;
+        int batchDirectories = WatchEngine.DEFAULT_BATCH_DIRECTORIES;
+        File directory = null;
+        Path savePlan = null, commitPlan = null;
+        ZoneId zone = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--dry-run":
+                    dryRun = true;
+                    break;
+                case "--stagger":
+                    options.setStaggerDateTimes(true);
+                    break;
+                case "--stagger-seconds":
+                    if (i + 1 >= args.length) {
+                        return usage("--stagger-seconds needs a value");
+                    }
+                    try {
+                        options.setStaggerSeconds(Integer.parseInt(args[++i]));
+                    } catch (NumberFormatException e) {
+                        return usage("--stagger-seconds needs a number: " + args[i]);
+                    }
+                    break;
+                case "--stagger-overflow":
+                    if (i + 1 >= args.length) {
+                        return usage("--stagger-overflow needs a value");
+                    }
+                    try {
+                        options.setStaggerOverflow(StaggerOverflow.valueOf(args[++i].toUpperCase(Locale.ROOT)));
+                    } catch (IllegalArgumentException e) {
+                        return usage("--stagger-overflow needs push or overlap: " + args[i]);
+                    }
+                    break;
+                case "--global-order":
+                    options.setGlobalOrder(true);
+                    break;
+                case "--relocate":
+                    options.setRelocate(true);
+                    break;
+                case "--duplicates":
+                    if (i + 1 >= args.length) {
+                        return usage("--duplicates needs a value");
+                    }
+                    try {
+                        options.setDuplicateMode(DuplicateMode.valueOf(args[++i].toUpperCase(Locale.ROOT)));
+                    } catch (IllegalArgumentException e) {
+                        return usage("--duplicates needs report or skip: " + args[i]);
+                    }
+                    break;
+                case "--threads":
+                    if (i + 1 >= args.length) {
+                        return usage("--threads needs a value");
+                    }
+                    try {
+                        options.setThreads(Integer.parseInt(args[++i]));
+                    } catch (NumberFormatException e) {
+                        return usage("--threads needs a number: " + args[i]);
+                    }
+                    break;
+                case "--zone":
+                    if (i + 1 >= args.length) {
+                        return usage("--zone needs a value");
+                    }
+                    try {
+                        zone = ZoneId.of(args[++i]);
+                    } catch (DateTimeException e) {
+                        return usage("--zone needs a time zone, e.g. Europe/Berlin or +02:00: " + args[i]);
+                    }
+                    break;
+                case "--io-threads":
+                    if (i + 1 >= args.length) {
+                        return usage("--io-threads needs a value");
+                    }
+                    try {
+                        String value = args[++i];
+                        options.getIoScheduler().setThreads(storeOf(value), Integer.parseInt(limitOf(value)));
+                    } catch (NumberFormatException e) {
+                        return usage("--io-threads needs a number, or <store>=<number>: " + args[i]);
+                    }
+                    break;
+                case "--io-rate":
+                    if (i + 1 >= args.length) {
+                        return usage("--io-rate needs a value");
+                    }
+                    try {
+                        String value = args[++i];
+                        options.getIoScheduler().setRate(storeOf(value), IoScheduler.parseBytes(limitOf(value)));
+                    } catch (NumberFormatException e) {
+                        return usage("--io-rate needs bytes a second, e.g. 20M, or <store>=<bytes>: " + args[i]);
+                    }
+                    break;
+                case "--io-order":
+                    options.getIoScheduler().setOrdered(true);
+                    break;
+                case "--no-cache":
+                    options.setUseCache(false);
+                    break;
+                case "--report":
+                    if (i + 1 >= args.length) {
+                        return usage("--report needs a file");
+                    }
+                    Path report = Paths.get(args[++i]);
+                    options.setReport(report, ChangeReport.Format.forPath(report));
+                    break;
+                case "--json":
+                    json = true;
+                    break;
+                case "--save-plan":
+                    if (i + 1 >= args.length) {
+                        return usage("--save-plan needs a file");
+                    }
+                    savePlan = Paths.get(args[++i]);
+                    break;
+                case "--commit-plan":
+                    if (i + 1 >= args.length) {
+                        return usage("--commit-plan needs a file");
+                    }
+                    commitPlan = Paths.get(args[++i]);
+                    break;
+                case "--watch":
+                    watch = true;
+                    break;
+                case "--watch-quiet":
+                    if (i + 1 >= args.length) {
+                        return usage("--watch-quiet needs a value");
+                    }
+                    try {
+                        quietSeconds = Integer.parseInt(args[++i]);
+                    } catch (NumberFormatException e) {
+                        return usage("--watch-quiet needs a number: " + args[i]);
+                    }
+                    break;
+                case "--watch-reconcile":
+                    if (i + 1 >= args.length) {
+                        return usage("--watch-reconcile needs a value");
+                    }
+                    try {
+                        reconcileMinutes = Integer.parseInt(args[++i]);
+                    } catch (NumberFormatException e) {
+                        return usage("--watch-reconcile needs a number: " + args[i]);
+                    }
+                    break;
+                case "--watch-batch":
+                    if (i + 1 >= args.length) {
+                        return usage("--watch-batch needs a value");
+                    }
+                    try {
+                        batchDirectories = Integer.parseInt(args[++i]);
+                    } catch (NumberFormatException e) {
+                        return usage("--watch-batch needs a number: " + args[i]);
+                    }
+                    break;
+                case "--recover":
+                    recover = true;
+                    break;
+                case "--rollback":
+                    rollback = true;
+                    break;
+                case "-h":
+                case "--help":
+                    System.out.print(USAGE);
+                    return EXIT_OK;
+                default:
+                    if (args[i].startsWith("-") || directory != null) {
+                        return usage("unexpected argument: " + args[i]);
+                    }
+                    directory = new File(args[i]);
+            }
+        }
+
+        if (recover || rollback) {
+            if (recover && rollback) {
+                return usage("--recover and --rollback can't be used together");
+            }
+            return new Cli(json, options.getZone()).recover(rollback);
+        }
+
+        if (commitPlan != null) {
+            if (directory != null || savePlan != null || watch) {
+                return usage("--commit-plan doesn't take a directory, --save-plan or --watch");
+            }
+            if (zone != null) {
+                return usage("--commit-plan uses the zone the plan was scanned in, it doesn't take --zone");
+            }
+            return new Cli(json, options.getZone()).commitPlan(commitPlan, options);
+        }
+
+        if (directory == null) {
+            return usage("no directory given");
+        }
+        if (!directory.isDirectory()) {
+            return usage("not a directory: " + directory);
+        }
+
+        if (zone != null) {
+            options.setZone(zone);
+        }
+
+        if (watch) {
+            if (options.isGlobalOrder()) {
+                return usage("--global-order and --relocate can't be used with --watch");
+            }
+            if (options.getReport() != null || savePlan != null) {
+                return usage("--report and --save-plan can't be used with --watch");
+            }
+            Cli cli = new Cli(json, options.getZone());
+            return cli.watch(new WatchEngine(directory, options, dryRun, quietSeconds, reconcileMinutes,
+                    batchDirectories, cli));
+        }
+
+        return new Cli(json, options.getZone()).run(directory, options, dryRun, savePlan);
+    }
+
+    // ------------------------------------------------------------------------
+    // EngineListener Interface
+    // ------------------------------------------------------------------------
+
+    @Override
+    public void onMessage(String text) {
+        mMessages.print(text);
+    }
+
+    @Override
+    public void onProgress(long workDone, long max) {
+        // nobody's watching a progress bar
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public void onChange(MediaItem item) {
+        if (mJson) {
+            mOut.println("{\"type\":\"change\"" +
+                    ",\"path\":" + Json.quote(item.getFilepath()) +
+                    ",\"source\":" + Json.quote(item.getDateSource().name()) +
+                    ",\"newDateTime\":" + (item.hasNewDateTime() ?
+                    Json.quote(mDateTimes.formatIso(item.getDateTime())) : "null") +
+                    ",\"newFilename\":" + (item.hasNewFilename() ? Json.quote(item.getNewFilename()) : "null") + "}");
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Private Methods
+    // ------------------------------------------------------------------------
+
+    private int run(File directory, ScanOptions options, boolean dryRun, Path savePlan) {
+        ChangeSet changeSet = new ChangeSet(options.getZone());
+        try {
+            return run(directory, options, dryRun, savePlan, changeSet);
+        } finally {
+            try {
+                changeSet.close();
+            } catch (IOException e) {
+                // only the spill file, and that's a temp file
+            }
+        }
+    }
+
+    private int run(File directory, ScanOptions options, boolean dryRun, Path savePlan, ChangeSet changeSet) {
+        Metrics metrics = Metrics.forRun();
+        ScanEngine scanner = new ScanEngine(directory, options, changeSet, metrics, this);
+        int scanIssues = scanner.run();
+        mMessages.println("\n\n" + scanIssues + " issues found.");
+
+        int commitIssues = 0, planIssues = 0;
+        boolean committed = false;
+        if (savePlan != null) {
+            planIssues = savePlan(changeSet, savePlan, scanIssues);
+        } else if (scanIssues == 0 && !dryRun && !changeSet.isEmpty()) {
+            commitIssues = new CommitEngine(changeSet, options.getThreads(), options.getIoScheduler(), metrics,
+                    this).run();
+            mMessages.println();
+            committed = true;
+        } else if (scanIssues > 0 && !dryRun) {
+            mMessages.println("Fix errors before writing the changes. Nothing was written.");
+        }
+
+        if (mJson) {
+            mOut.println("{\"type\":\"summary\"" +
+                    ",\"files\":" + scanner.getFileCount() +
+                    ",\"changes\":" + changeSet.size() +
+                    ",\"scanIssues\":" + scanIssues +
+                    ",\"committed\":" + committed +
+                    ",\"commitIssues\":" + commitIssues +
+                    ",\"plan\":" + (savePlan != null && scanIssues + planIssues == 0 ?
+                    Json.quote(savePlan.toString()) : "null") +
+                    ",\"metrics\":" + Json.quote(metrics.getSummaryFile().toString()) + "}");
+        }
+        mOut.flush();
+
+        return scanIssues == 0 && commitIssues == 0 && planIssues == 0 ? EXIT_OK : EXIT_ISSUES;
+    }
+
+    // only a clean scan is saved, like only a clean scan is committed
+    private int savePlan(ChangeSet changeSet, Path file, int scanIssues) {
+        if (scanIssues > 0) {
+            mMessages.println("Fix errors before saving the plan. Nothing was saved.");
+            return 0;
+        }
+
+        try {
+            changeSet.save(file);
+            mMessages.println("Saved " + changeSet.size() + " changes to " + file + ", write them with --commit-plan.");
+            return 0;
+        } catch (IOException e) {
+            mMessages.println("Couldn't save the plan " + file + ": " + e);
+            return 1;
+        }
+    }
+
+    private int commitPlan(Path file, ScanOptions options) {
+        ChangeSet changeSet;
+        try {
+            changeSet = ChangeSet.load(file);
+        } catch (IOException e) {
+            mMessages.println("Couldn't read the plan " + file + ": " + e);
+            return EXIT_ISSUES;
+        }
+
+        // the commit writes in the zone of the plan, the filenames were made in it
+        mMessages.print("Plan from " + changeSet.getDateTimes().formatIso(changeSet.getCreated()) + " (" +
+                changeSet.getZone() + "), " + changeSet.size() + " changes");
+
+        Metrics metrics = Metrics.forRun();
+        int issues = new CommitEngine(changeSet, options.getThreads(), options.getIoScheduler(), metrics, this).run();
+        mMessages.println();
+
+        if (mJson) {
+            mOut.println("{\"type\":\"summary\"" +
+                    ",\"plan\":" + Json.quote(file.toString()) +
+                    ",\"changes\":" + changeSet.size() +
+                    ",\"commitIssues\":" + issues +
+                    ",\"metrics\":" + Json.quote(metrics.getSummaryFile().toString()) + "}");
+        }
+        mOut.flush();
+
+        return issues == 0 ? EXIT_OK : EXIT_ISSUES;
+    }
+
+    /*
+     * watches until the JVM is told to stop (ctrl-c, kill). the shutdown hook waits for the batch that's running to
+     * finish, so a commit isn't cut off half way.
+     */
+    private int watch(WatchEngine watcher) {
+        CountDownLatch stopped = new CountDownLatch(1);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            watcher.stop();
+            try {
+                stopped.await();
+            } catch (InterruptedException e) {
+                // shutting down anyway
+            }
+        }, "Cli-shutdown"));
+
+        int issues;
+        try {
+            issues = watcher.run();
+        } finally {
+            stopped.countDown();
+        }
+        mMessages.println();
+
+        if (mJson) {
+            mOut.println("{\"type\":\"summary\"" +
+                    ",\"watch\":true" +
+                    ",\"issues\":" + issues + "}");
+        }
+        mOut.flush();
+
+        return issues == 0 ? EXIT_OK : EXIT_ISSUES;
+    }
+
+    private int recover(boolean rollback) {
+        List<Path> journals;
+        try {
+            journals = CommitJournal.findUnfinished();
+        } catch (IOException e) {
+            mMessages.println("Couldn't list the commit journals: " + e);
+            return EXIT_ISSUES;
+        }
+
+        int issues = new RecoveryEngine(journals, rollback, this).run();
+        mMessages.println();
+
+        if (mJson) {
+            mOut.println("{\"type\":\"summary\"" +
+                    ",\"journals\":" + journals.size() +
+                    ",\"rollback\":" + rollback +
+                    ",\"issues\":" + issues + "}");
+        }
+        mOut.flush();
+
+        return issues == 0 ? EXIT_OK : EXIT_ISSUES;
+    }
+
+    private static int usage(String error) {
+        System.err.println(error);
+        System.err.print(USAGE);
+        return EXIT_USAGE;
+    }
+
+    // "nfs=2" is limited on nfs stores, "2" on every store
+    private static String storeOf(String value) {
+        int equals = value.lastIndexOf('=');
+        return equals > 0 ? value.substring(0, equals) : null;
+    }
+
+    private static String limitOf(String value) {
+        return value.substring(value.lastIndexOf('=') + 1);
+    }
+}
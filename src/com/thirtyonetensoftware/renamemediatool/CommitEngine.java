@@ -0,0 +1,667 @@
+package com.thirtyonetensoftware.renamemediatool;
+
+import com.thirtyonetensoftware.renamemediatool.support.CommitJournal;
+import com.thirtyonetensoftware.renamemediatool.support.IoScheduler;
+import com.thirtyonetensoftware.renamemediatool.support.MetadataException;
+import com.thirtyonetensoftware.renamemediatool.support.Metrics;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * writes the changes a ScanEngine collected: new date/times first, then the new filenames.
+ * nothing here touches JavaFX, so it can be driven by CommitWorker or by the command line.
+ *
+ * date/times are written on a pool of threads, one file per task. renames are done one directory per task, and
+ * within a directory the temp name then new name passes run in order. files only move within their own directory,
+ * so directories can't collide with each other. with ScanOptions' relocate they move into yyyy/MM directories that
+ * may be being renamed themselves, so then every directory's temp pass is finished before any new name pass starts:
+ * the new names are unique across the whole tree, so once nothing is on an old name nothing can collide.
+ *
+ * everything is written to a CommitJournal before it's done, so an interrupted commit can be finished or undone by
+ * RecoveryEngine.
+ *
+ * only the date/times that differ are written (see MediaItem.getDateTargets()), the rest are counted as skipped.
+ *
+ * each file's date/times, and each directory's renames, are done holding a permit for the store they're on (see
+ * IoScheduler). with its ordering on, date/times are written a directory at a time instead of in scan order.
+ *
+ * the change set may have come from a snapshot saved long before, so every file is stat-ed first. a file that's
+ * changed since the scan isn't touched, and nothing in its directory is renamed, the numbering there was worked out
+ * with the file as it was.
+ */
+public class CommitEngine {
+
+    // ------------------------------------------------------------------------
+    // Class Variables
+    // ------------------------------------------------------------------------
+
+    private static final int PROGRESS_LOOPS = 3;
+
+    // what commitDirectory() does
+    private static final int TEMP_PASS = 1;
+    private static final int FINAL_PASS = 2;
+
+    // ------------------------------------------------------------------------
+    // Instance Variables
+    // ------------------------------------------------------------------------
+
+    private final ChangeSet mChangeSet;
+
+    private final EngineListener mListener;
+
+    private final Metrics mMetrics;
+
+    private final int mThreads;
+
+    private final IoScheduler mIoScheduler;
+
+    private final int mTotalIterations;
+
+    private int mIterations;
+
+    private ExecutorService mExecutor;
+
+    private CommitJournal mJournal;
+
+    // indexes of files that changed since the scan, and the ids of their directories
+    private final BitSet mChanged = new BitSet();
+
+    private final BitSet mChangedDirectories = new BitSet();
+
+    // when relocating: ids of the directories whose temp pass was skipped, and indexes of the files whose temp
+    // rename failed, so the new name pass knows where each file is. synchronized on themselves
+    private final BitSet mTempSkipped = new BitSet();
+
+    private final BitSet mTempFailed = new BitSet();
+
+    // directories whose renames have been journaled but aren't DONE, some of their files may be on temp names
+    private final AtomicInteger mOpenDirectories = new AtomicInteger();
+
+    // ------------------------------------------------------------------------
+    // Constructor
+    // ------------------------------------------------------------------------
+
+    public CommitEngine(ChangeSet changeSet, EngineListener listener) {
+        this(changeSet, ScanOptions.DEFAULT_THREADS, listener);
+    }
+
+    public CommitEngine(ChangeSet changeSet, int threads, EngineListener listener) {
+        this(changeSet, threads, new Metrics(null), listener);
+    }
+
+    public CommitEngine(ChangeSet changeSet, int threads, Metrics metrics, EngineListener listener) {
+        this(changeSet, threads, new IoScheduler(), metrics, listener);
+    }
+
+    public CommitEngine(ChangeSet changeSet, int threads, IoScheduler ioScheduler, Metrics metrics,
+                        EngineListener listener) {
+        mChangeSet = changeSet;
+        mListener = listener;
+        mMetrics = metrics;
+        mThreads = Math.max(1, threads);
+        mIoScheduler = ioScheduler;
+
+        mTotalIterations = mChangeSet.size() * PROGRESS_LOOPS;
+    }
+
+    // ------------------------------------------------------------------------
+    // Public Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * @return the number of issues writing the changes
+     */
+    public int run() {
+        mMetrics.startCommit();
+        try {
+            return commitAll();
+        } finally {
+            mMetrics.endCommit();
+            try {
+                mMetrics.writeSummary();
+            } catch (IOException e) {
+                mListener.onMessage("\n\nCouldn't write the metrics summary " + mMetrics.getSummaryFile() + ": " + e);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Private Methods
+    // ------------------------------------------------------------------------
+
+    private int commitAll() {
+        updateProgress(0, mTotalIterations);
+
+        warnUnfinishedJournals();
+
+        try {
+            mJournal = CommitJournal.create();
+        } catch (IOException e) {
+            mListener.onMessage("\n\nCouldn't create the commit journal, nothing was written: " + e);
+            mMetrics.error(e);
+            return 1;
+        }
+        mJournal.setForceLatency(mMetrics.latency(Metrics.FSYNC));
+
+        int result = 0;
+
+        mExecutor = createExecutor(mThreads);
+        try {
+            checkUnchanged();
+            result = commit();
+        } finally {
+            // don't interrupt, a directory that's been started is always finished
+            mExecutor.shutdown();
+            awaitExecutor();
+            closeJournal(result);
+        }
+
+        // skipped files aren't a problem with the commit, so they don't keep the journal, but they still weren't done
+        int changed = mChanged.cardinality();
+        if (changed > 0) {
+            mListener.onMessage("\n\n" + changed + " files changed since the scan and were skipped, along with the " +
+                    "renames in their directories. Scan again to pick them up.");
+        }
+
+        return result + changed;
+    }
+
+    private int commit() {
+        int result = 0;
+
+        mListener.onMessage("\n\nCOMMITTING NEW DATE/TIME VALUES:");
+
+        result += commitNewDateTimes();
+
+        if (isCancelled()) {
+            return result;
+        }
+
+        if (result > 0) {
+            mListener.onMessage("\n\n" + result + " issues writing new date times. Not renaming files until resolved.");
+            return result;
+        }
+
+        mListener.onMessage("\n\nCOMMITTING NEW FILENAMES:");
+
+        result += commitNewFilenames();
+
+        updateProgress(mTotalIterations, mTotalIterations);
+        mListener.onMessage("\n\nFINISHED. " + result + " issues.");
+
+        return result;
+    }
+
+    private void checkUnchanged() {
+        int[] sorted = mChangeSet.sortedByDirectory();
+
+        ArrayList<Future<BitSet>> futures = new ArrayList<>(mChangeSet.getDirectoryCount());
+        int start = 0;
+        while (start < sorted.length) {
+            int directory = mChangeSet.getDirectoryId(sorted[start]);
+            int end = start + 1;
+            while (end < sorted.length && mChangeSet.getDirectoryId(sorted[end]) == directory) {
+                end++;
+            }
+
+            int first = start, last = end;
+            futures.add(mExecutor.submit(() -> findChanged(sorted, first, last)));
+            start = end;
+        }
+
+        for (Future<BitSet> future : futures) {
+            try {
+                BitSet changed = future.get();
+                for (int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i + 1)) {
+                    mChanged.set(i);
+                    mChangedDirectories.set(mChangeSet.getDirectoryId(i));
+                    mListener.onMessage("\nCHANGED SINCE THE SCAN, SKIPPED: " + mChangeSet.getFilepath(i));
+                }
+            } catch (InterruptedException e) {
+                // cancelled, the commit stops at its first isCancelled()
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                mListener.onMessage("\n" + e.getCause());
+                mMetrics.error(e.getCause());
+            }
+        }
+    }
+
+    // runs on the executor for one directory, a stat per file
+    private BitSet findChanged(int[] sorted, int start, int end) {
+        BitSet changed = new BitSet();
+        for (int i = start; i < end; i++) {
+            if (!mChangeSet.isUnchanged(sorted[i])) {
+                changed.set(sorted[i]);
+            }
+        }
+        return changed;
+    }
+
+    private void warnUnfinishedJournals() {
+        try {
+            for (Path journal : CommitJournal.findUnfinished()) {
+                mListener.onMessage("\n\nAn earlier commit didn't finish, see " + journal +
+                        "\nUse the command line's --recover or --rollback to deal with it.");
+            }
+        } catch (IOException e) {
+            // only a warning
+        }
+    }
+
+    private void awaitExecutor() {
+        boolean interrupted = false;
+
+        while (true) {
+            try {
+                if (mExecutor.awaitTermination(1, TimeUnit.SECONDS)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                // cancelled, but the running directories still have to finish before the journal is closed
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+     * a clean run deletes its journal, otherwise it's kept for --recover / --rollback. a cancelled run is clean if
+     * everything it started finished without errors, but not if it was cancelled between the temp and new name
+     * passes of a relocation
+     */
+    private void closeJournal(int result) {
+        try {
+            if (result == 0 && mOpenDirectories.get() == 0) {
+                mJournal.complete();
+            } else {
+                mJournal.close();
+                mListener.onMessage("\n\nThe commit journal was kept at " + mJournal.getPath() +
+                        "\nUse the command line's --recover or --rollback to finish or undo this commit.");
+            }
+        } catch (IOException e) {
+            mListener.onMessage("\n\nCouldn't close the commit journal " + mJournal.getPath() + ": " + e);
+        }
+    }
+
+    private boolean isCancelled() {
+        return mListener.isCancelled();
+    }
+
+    private void updateProgress(long workDone, long max) {
+        mListener.onProgress(workDone, max);
+    }
+
+    private static ExecutorService createExecutor(int threads) {
+        AtomicInteger count = new AtomicInteger();
+
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "CommitEngine-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private int commitNewDateTimes() {
+        int result = 0;
+
+        // journal the old and new times of every file before touching any of them
+        try {
+            long sequence = 0;
+            for (int i = 0; i < mChangeSet.size(); i++) {
+                if (mChangeSet.hasNewDateTime(i) && !mChanged.get(i)) {
+                    sequence = mJournal.append(CommitJournal.DATE, mChangeSet.getFilepath(i),
+                            String.valueOf(mChangeSet.getLastModified(i)),
+                            String.valueOf(mChangeSet.getDateCreated(i)),
+                            String.valueOf(mChangeSet.getDateTime(i)));
+                }
+            }
+            mJournal.sync(sequence);
+        } catch (IOException e) {
+            mListener.onMessage("\nCouldn't write the commit journal: " + e);
+            return ++result;
+        }
+
+        int metadataSkipped = 0, lastModifiedSkipped = 0, dateCreatedSkipped = 0;
+        long notRewritten = 0;
+
+        // in scan order, or a directory at a time. either way the futures are kept in scan order
+        int[] order = mIoScheduler.isOrdered() ? mChangeSet.sortedByDirectory() : null;
+
+        ArrayList<Future<String>> futures = new ArrayList<>(Collections.nCopies(mChangeSet.size(), null));
+        for (int n = 0; n < mChangeSet.size(); n++) {
+            int i = order != null ? order[n] : n;
+            int targets = mChangeSet.getDateTargets(i);
+            if (targets != 0 && !mChanged.get(i)) {
+                if (mChangeSet.isMetadataWritable(i) && (targets & MediaItem.TARGET_METADATA) == 0) {
+                    metadataSkipped++;
+                    notRewritten += mChangeSet.getFileSize(i);
+                    mMetrics.writeSkipped(Metrics.METADATA);
+                    mMetrics.addBytesNotRewritten(mChangeSet.getFileSize(i));
+                }
+                if ((targets & MediaItem.TARGET_LAST_MODIFIED) == 0) {
+                    lastModifiedSkipped++;
+                    mMetrics.writeSkipped(Metrics.LAST_MODIFIED);
+                }
+                if ((targets & MediaItem.TARGET_DATE_CREATED) == 0) {
+                    dateCreatedSkipped++;
+                    mMetrics.writeSkipped(Metrics.DATE_CREATED);
+                }
+
+                int index = i;
+                // the MediaItem is only made on the executor, so only the running ones are in memory
+                futures.set(i, mExecutor.submit(() -> commitNewDateTime(mChangeSet.get(index))));
+            }
+        }
+
+        // collected in order, so messages come out the same way every run. after a cancel the ones that had
+        // started are still waited for, so their errors count
+        boolean cancelled = false;
+        for (Future<String> future : futures) {
+            if (!cancelled && isCancelled()) {
+                cancelAll(futures);
+                cancelled = true;
+            }
+
+            if (future != null && !future.isCancelled()) {
+                try {
+                    String error = getUninterruptibly(future);
+                    if (error != null) {
+                        mListener.onMessage(error);
+                        result++;
+                    }
+                } catch (ExecutionException e) {
+                    mListener.onMessage("\n" + e.getCause());
+                    mMetrics.error(e.getCause());
+                    result++;
+                }
+            }
+
+            mIterations++;
+            updateProgress(mIterations, mTotalIterations);
+        }
+
+        if (cancelled) {
+            return result;
+        }
+
+        if (metadataSkipped + lastModifiedSkipped + dateCreatedSkipped > 0) {
+            mListener.onMessage(String.format(Locale.ROOT, "\n\nAlready right, not written: %d embedded date/times " +
+                    "(%.1f MB not rewritten), %d lastModified, %d dateCreated", metadataSkipped,
+                    notRewritten / (1024.0 * 1024.0), lastModifiedSkipped, dateCreatedSkipped));
+        }
+
+        return result;
+    }
+
+    // runs on the executor, returns the error message if there was one
+    private String commitNewDateTime(MediaItem item) throws InterruptedException {
+        IoScheduler.Store store = acquireStore(item.getFilepath());
+        try {
+            // charged as a whole rewrite, there's no telling beforehand if it can be patched in place
+            if ((item.getDateTargets() & MediaItem.TARGET_METADATA) != 0) {
+                store.consume(item.getSize());
+            }
+
+            long start = System.nanoTime();
+            item.commitNewDateTime(mChangeSet.getDateTimes());
+            mMetrics.latency(Metrics.DATE_WRITE).record(System.nanoTime() - start);
+            mMetrics.dateWritten();
+            return null;
+        } catch (IOException | MetadataException e) {
+            mMetrics.error(e);
+            return "\n" + e;
+        } finally {
+            store.release();
+        }
+    }
+
+    private IoScheduler.Store acquireStore(String filepath) throws InterruptedException {
+        IoScheduler.Store store = mIoScheduler.getStore(Paths.get(filepath));
+        long waited = store.acquire();
+        if (store.isLimited()) {
+            mMetrics.latency(Metrics.IO_WAIT).record(waited);
+        }
+        return store;
+    }
+
+    private int commitNewFilenames() {
+        // group the renames by directory, keeping the scan order within each
+        int[] sorted = mChangeSet.sortedByDirectory();
+
+        // where each directory's renames are in sorted, first and last
+        ArrayList<int[]> ranges = new ArrayList<>(mChangeSet.getDirectoryCount());
+        boolean relocating = false;
+        for (int start = 0, end; start < sorted.length; start = end) {
+            int directory = mChangeSet.getDirectoryId(sorted[start]);
+
+            boolean skipped = mChangedDirectories.get(directory);
+
+            int renames = 0;
+            for (end = start; end < sorted.length && mChangeSet.getDirectoryId(sorted[end]) == directory; end++) {
+                if (mChangeSet.hasNewFilename(sorted[end]) && !skipped) {
+                    relocating |= mChangeSet.getNewDirectory(sorted[end]) != null;
+                    sorted[start + renames++] = sorted[end];
+                } else {
+                    mIterations += 2;
+                }
+            }
+
+            if (renames > 0) {
+                ranges.add(new int[]{start, start + renames});
+            }
+        }
+        updateProgress(mIterations, mTotalIterations);
+
+        if (!relocating) {
+            return commitDirectories(sorted, ranges, TEMP_PASS | FINAL_PASS);
+        }
+
+        int result = commitDirectories(sorted, ranges, TEMP_PASS);
+        if (isCancelled()) {
+            return result;
+        }
+        return result + commitDirectories(sorted, ranges, FINAL_PASS);
+    }
+
+    private int commitDirectories(int[] sorted, ArrayList<int[]> ranges, int passes) {
+        int result = 0;
+
+        ArrayList<Future<ArrayList<String>>> futures = new ArrayList<>(ranges.size());
+        for (int[] range : ranges) {
+            futures.add(mExecutor.submit(() -> commitDirectory(sorted, range[0], range[1], passes)));
+        }
+
+        // each pass is one of the two renames per file
+        int perFile = passes == (TEMP_PASS | FINAL_PASS) ? 2 : 1;
+
+        // like the date/times, started directories are waited for after a cancel
+        boolean cancelled = false;
+        for (int i = 0; i < futures.size(); i++) {
+            if (!cancelled && isCancelled()) {
+                cancelAll(futures);
+                cancelled = true;
+            }
+
+            if (futures.get(i).isCancelled()) {
+                continue;
+            }
+
+            try {
+                for (String error : getUninterruptibly(futures.get(i))) {
+                    mListener.onMessage(error);
+                    result++;
+                }
+            } catch (ExecutionException e) {
+                mListener.onMessage("\n" + e.getCause());
+                mMetrics.error(e.getCause());
+                result++;
+            }
+
+            mIterations += (ranges.get(i)[1] - ranges.get(i)[0]) * perFile;
+            updateProgress(mIterations, mTotalIterations);
+        }
+
+        return result;
+    }
+
+    // runs on the executor for one directory, holding a permit for the store it's on
+    private ArrayList<String> commitDirectory(int[] sorted, int start, int end, int passes)
+            throws InterruptedException {
+        IoScheduler.Store store = acquireStore(mChangeSet.getFilepath(sorted[start]));
+        try {
+            ArrayList<String> errors = new ArrayList<>();
+            String directory = mChangeSet.getDirectory(sorted[start]);
+
+            ArrayList<MediaItem> items = new ArrayList<>(end - start);
+            for (int i = start; i < end; i++) {
+                items.add(mChangeSet.get(sorted[i]));
+            }
+
+            if ((passes & TEMP_PASS) != 0) {
+                if (!commitTempFilenames(sorted, start, items, directory, errors)) {
+                    return errors;
+                }
+            } else {
+                // the temp pass was done on other copies of these, pick up where it left them
+                synchronized (mTempSkipped) {
+                    if (mTempSkipped.get(mChangeSet.getDirectoryId(sorted[start]))) {
+                        return errors;
+                    }
+                }
+                synchronized (mTempFailed) {
+                    for (int i = start; i < end; i++) {
+                        if (!mTempFailed.get(sorted[i])) {
+                            items.get(i - start).useTempFilename();
+                        }
+                    }
+                }
+            }
+
+            if ((passes & FINAL_PASS) != 0) {
+                commitNewFilenames(items, directory, errors);
+            }
+
+            return errors;
+        } finally {
+            store.release();
+        }
+    }
+
+    /*
+     * it's necessary to first rename all the files to temporary names to avoid conflicts and overwritings when
+     * writing the new names.
+     *
+     * every rename is journaled before the first one happens, and the switch to final names is journaled too, so
+     * recovery knows which way round the files are.
+     *
+     * @return false if nothing was renamed because the journal couldn't be written
+     */
+    private boolean commitTempFilenames(int[] sorted, int start, ArrayList<MediaItem> items, String directory,
+                                        ArrayList<String> errors) {
+        try {
+            long sequence = 0;
+            for (MediaItem item : items) {
+                sequence = mJournal.append(CommitJournal.RENAME, item.getAbsoluteFilepath(), item.getTempFilepath(),
+                        item.getNewFilepath());
+            }
+            mJournal.sync(sequence);
+            mOpenDirectories.incrementAndGet();
+        } catch (IOException e) {
+            // nothing in this directory has been touched
+            errors.add("\nCouldn't write the commit journal, skipped " + directory + ": " + e);
+            synchronized (mTempSkipped) {
+                mTempSkipped.set(mChangeSet.getDirectoryId(sorted[start]));
+            }
+            return false;
+        }
+
+        for (int i = 0; i < items.size(); i++) {
+            long renameStart = System.nanoTime();
+            try {
+                items.get(i).commitTempFilename();
+                mMetrics.latency(Metrics.RENAME).record(System.nanoTime() - renameStart);
+            } catch (Exception e) {
+                mMetrics.error(e);
+                errors.add("\n" + e);
+                synchronized (mTempFailed) {
+                    mTempFailed.set(sorted[start + i]);
+                }
+            }
+        }
+
+        try {
+            mJournal.sync(mJournal.append(CommitJournal.FINAL, directory));
+        } catch (IOException e) {
+            // still finish, leaving the files on temp names would be worse
+            errors.add("\nCouldn't write the commit journal for " + directory + ": " + e);
+        }
+
+        return true;
+    }
+
+    private void commitNewFilenames(ArrayList<MediaItem> items, String directory, ArrayList<String> errors) {
+        for (MediaItem item : items) {
+            long renameStart = System.nanoTime();
+            try {
+                item.commitNewFilename();
+                mMetrics.latency(Metrics.RENAME).record(System.nanoTime() - renameStart);
+                mMetrics.fileRenamed();
+            } catch (Exception e) {
+                mMetrics.error(e);
+                errors.add("\n" + e);
+            }
+        }
+
+        try {
+            // doesn't need to be on disk straight away, recovering a finished directory changes nothing
+            mJournal.append(CommitJournal.DONE, directory);
+        } catch (IOException e) {
+            errors.add("\nCouldn't write the commit journal for " + directory + ": " + e);
+        }
+        mOpenDirectories.decrementAndGet();
+    }
+
+    // a task that's started is never stopped part way, so it's waited for even when the wait is interrupted
+    private static <T> T getUninterruptibly(Future<T> future) throws ExecutionException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static <T> void cancelAll(ArrayList<Future<T>> futures) {
+        for (Future<T> future : futures) {
+            if (future != null) {
+                // only the ones that haven't started, a directory is never left half renamed
+                future.cancel(false);
+            }
+        }
+    }
+}
@@ -1,46 +1,29 @@
 package com.thirtyonetensoftware.renamemediatool;
 
+import com.thirtyonetensoftware.renamemediatool.support.Metrics;
 import javafx.concurrent.Task;
-import javafx.scene.control.TextArea;
-import org.apache.sanselan.ImageReadException;
-import org.apache.sanselan.ImageWriteException;
+import javafx.scene.control.ListView;
 
-import java.io.IOException;
-import java.util.ArrayList;
 
-public class CommitWorker extends Task<Integer> {
-
-    // ------------------------------------------------------------------------
-    // Class Variables
-    // ------------------------------------------------------------------------
-
-    private static final int PROGRESS_LOOPS = 3;
+public class CommitWorker extends Task<Integer> implements EngineListener {
 
     // ------------------------------------------------------------------------
     // Instance Variables
     // ------------------------------------------------------------------------
 
-    private final ArrayList<MediaItem> mChangeItems;
-
     private final MessageConsumer mMessageConsumer;
 
-    private final int mTotalIterations;
-
-    private int mIterations;
+    private final CommitEngine mEngine;
 
     // ------------------------------------------------------------------------
     // Constructor
     // ------------------------------------------------------------------------
 
-    public CommitWorker(TextArea textArea, ArrayList<MediaItem> changeItems) {
-        mChangeItems = changeItems;
-
-        mTotalIterations = mChangeItems.size() * PROGRESS_LOOPS;
-
-        updateProgress(0, mTotalIterations);
-
-        mMessageConsumer = new MessageConsumer(textArea);
+    public CommitWorker(ListView<String> listView, ChangeSet changeSet, Metrics metrics) {
+        mMessageConsumer = new MessageConsumer(listView);
         mMessageConsumer.start();
+
+        mEngine = new CommitEngine(changeSet, ScanOptions.DEFAULT_THREADS, metrics, this);
     }
 
     // ------------------------------------------------------------------------
@@ -49,106 +32,46 @@ public class CommitWorker extends Task<Integer> {
 
     @Override
     protected Integer call() throws Exception {
-        int result = 0;
+        mMessageConsumer.openLog();
+        mMessageConsumer.add("\n\nCOMMITTING CHANGES... DO NOT CLOSE PROGRAM!");
 
-        mMessageConsumer.add("\n\nCOMMITTING NEW DATE/TIME VALUES:");
-
-        result += commitNewDateTimes();
+        return mEngine.run();
+    }
 
-        if (result > 0) {
-            mMessageConsumer.add("\n\n" + result + " issues writing new date times. Not renaming files until resolved.");
-            return result;
-        }
+    @Override
+    protected void succeeded() {
+        super.succeeded();
 
-        mMessageConsumer.add("\n\nCOMMITTING NEW FILENAMES:");
+        mMessageConsumer.close();
+    }
 
-        result += commitTempFilenames();
+    @Override
+    protected void cancelled() {
+        super.cancelled();
 
-        result += commitNewFilenames();
+        mMessageConsumer.add("\n\nCANCELLED");
+        mMessageConsumer.close();
+    }
 
-        updateProgress(mTotalIterations, mTotalIterations);
-        mMessageConsumer.add("\n\nFINISHED. " + result + " issues.");
+    @Override
+    protected void failed() {
+        super.failed();
 
-        return result;
+        mMessageConsumer.add("\n\n" + getException());
+        mMessageConsumer.close();
     }
 
     // ------------------------------------------------------------------------
-    // Private Methods
+    // EngineListener Interface
     // ------------------------------------------------------------------------
 
-    private int commitNewDateTimes() {
-        int result = 0;
-
-        for (MediaItem item : mChangeItems) {
-            if (isCancelled()) {
-                return result;
-            }
-
-            if (item.hasNewDateTime()) {
-                try {
-                    item.commitNewDateTime();
-                } catch (IOException | ImageReadException | ImageWriteException e) {
-                    mMessageConsumer.add("\n" + e);
-                    result++;
-                }
-            }
-
-            mIterations++;
-            updateProgress(mIterations, mTotalIterations);
-        }
-
-        return result;
-    }
-
-    /*
-     * it's necessary to first rename all the files to temporary names to avoid conflicts and overwritings
-     * when writing the new names.
-     */
-    private int commitTempFilenames() {
-        int result = 0;
-
-        for (MediaItem item : mChangeItems) {
-            if (isCancelled()) {
-                return result;
-            }
-
-            if (item.hasNewFilename()) {
-                try {
-                    item.commitTempFilename();
-                } catch (Exception e) {
-                    mMessageConsumer.add("\n" + e);
-                    result++;
-                }
-            }
-
-            mIterations++;
-            updateProgress(mIterations, mTotalIterations);
-        }
-
-        return result;
+    @Override
+    public void onMessage(String text) {
+        mMessageConsumer.add(text);
     }
 
-    private int commitNewFilenames() {
-        int result = 0;
-
-        for (MediaItem item : mChangeItems) {
-            if (isCancelled()) {
-                return result;
-            }
-
-            if (item.hasNewFilename()) {
-                try {
-                    item.commitNewFilename();
-                } catch (Exception e) {
-                    mMessageConsumer.add("\n" + e);
-                    result++;
-                }
-            }
-
-            mIterations++;
-            updateProgress(mIterations, mTotalIterations);
-        }
-
-        return result;
+    @Override
+    public void onProgress(long workDone, long max) {
+        updateProgress(workDone, max);
     }
 }
@@ -1,11 +1,18 @@
 package com.thirtyonetensoftware.renamemediatool;
 
+import com.thirtyonetensoftware.renamemediatool.support.ChangeReport;
+import com.thirtyonetensoftware.renamemediatool.support.DateTimes;
+import com.thirtyonetensoftware.renamemediatool.support.Metrics;
+import javafx.concurrent.Task;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import javafx.stage.DirectoryChooser;
+import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 
 import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 
 public class Controller {
@@ -20,24 +27,40 @@ public class Controller {
     @FXML
     private CheckBox mStaggerDateTimes;
 
+    @FXML
+    private CheckBox mWriteReport;
+
     @FXML
     private ProgressBar mProgressBar;
 
     @FXML
-    private TextArea mOutputBox;
+    private ListView<String> mOutputBox;
 
     @FXML
     private Button mWriteChangesButton;
 
+    @FXML
+    private Button mSavePlanButton;
+
     private Stage mStage;
 
     private File mRootDir;
 
     private final DirectoryChooser mDirectoryChooser = new DirectoryChooser();
 
+    private final FileChooser mPlanChooser = new FileChooser();
+
+    private final FileChooser mReportChooser = new FileChooser();
+
     private ProcessWorker mTask;
 
-    private ArrayList<MediaItem> mChangeItems;
+    private ChangeSet mChangeSet;
+
+    // the threads working on mChangeSet: the scan, a commit or a save. it's only closed once they've all finished
+    private final ArrayList<Thread> mWorkers = new ArrayList<>();
+
+    // the scan's, carried on to its commit
+    private Metrics mMetrics;
 
     // ------------------------------------------------------------------------
     // Layout Methods
@@ -51,17 +74,34 @@ public class Controller {
         if (mRootDir != null) {
             mPathLabel.setText(mRootDir.getPath());
 
-            mChangeItems = new ArrayList<>();
-
-            mTask = new ProcessWorker(this, mOutputBox, mRootDir, mStaggerDateTimes.isSelected(), mChangeItems);
+            if (mTask != null) {
+                mTask.cancel();
+            }
+            closeChangeSet();
+            ScanOptions options = new ScanOptions();
+            // scans here are always in the system's zone. a plan opened before keeps its own
+            mChangeSet = new ChangeSet(options.getZone());
+            mMetrics = Metrics.forRun();
+
+            options.setStaggerDateTimes(mStaggerDateTimes.isSelected());
+            if (mWriteReport.isSelected()) {
+                // only where it's asked for, cancelling the chooser scans without one
+                mReportChooser.setInitialFileName("changes-" + DateTimes.STAMP_FORMAT.format(LocalDateTime.now()) +
+                        ".csv");
+                File report = mReportChooser.showSaveDialog(mStage);
+                if (report != null) {
+                    mReportChooser.setInitialDirectory(report.getParentFile());
+                    options.setReport(report.toPath(), ChangeReport.Format.forPath(report.toPath()));
+                }
+            }
+
+            mTask = new ProcessWorker(this, mOutputBox, mRootDir, options, mChangeSet, mMetrics);
 
             mProgressBar.progressProperty().unbind();
             mProgressBar.setProgress(0);
             mProgressBar.progressProperty().bind(mTask.progressProperty());
 
-            Thread mThread = new Thread(mTask);
-            mThread.setDaemon(true);
-            mThread.start();
+            startWorker(mTask);
         }
     }
 
@@ -76,20 +116,79 @@ public class Controller {
 
     public void enableWriteButton(boolean enabled) {
         mWriteChangesButton.setDisable(!enabled);
+        mSavePlanButton.setDisable(!enabled);
     }
 
-    public void onWriteChangesButtonClick() {
-        CommitWorker committer = new CommitWorker(mOutputBox, mChangeItems);
+    // a plan saved after an earlier scan, written with Write Changes like a scan's would be
+    public void onOpenPlanButtonClick() {
+        File file = mPlanChooser.showOpenDialog(mStage);
+        if (file == null) {
+            return;
+        }
+        mPlanChooser.setInitialDirectory(file.getParentFile());
+
+        if (mTask != null) {
+            mTask.cancel();
+        }
+
+        ChangeSet changeSet;
+        try {
+            changeSet = ChangeSet.load(file.toPath());
+        } catch (IOException e) {
+            mOutputBox.getItems().setAll("Couldn't read the plan " + file + ": " + e);
+            return;
+        }
 
-        mOutputBox.appendText("\n\nCOMMITTING CHANGES... DO NOT CLOSE PROGRAM!");
+        closeChangeSet();
+        mChangeSet = changeSet;
+        mMetrics = Metrics.forRun();
+
+        // the commit writes in the zone of the plan, the filenames were made in it
+        mPathLabel.setText(file.getPath());
+        mOutputBox.getItems().setAll("Plan from " + changeSet.getDateTimes().formatDisplay(changeSet.getCreated()) +
+                " (" + changeSet.getZone() + "), " + changeSet.size() + " changes. Click button to write changes.");
+        mWriteChangesButton.setDisable(changeSet.isEmpty());
+        mSavePlanButton.setDisable(true);
+    }
+
+    // saves the last scan's changes, so they can be written in a later session
+    public void onSavePlanButtonClick() {
+        File file = mPlanChooser.showSaveDialog(mStage);
+        if (file == null) {
+            return;
+        }
+        mPlanChooser.setInitialDirectory(file.getParentFile());
+
+        ChangeSet changeSet = mChangeSet;
+        Task<Void> save = new Task<Void>() {
+            @Override
+            protected Void call() throws Exception {
+                changeSet.save(file.toPath());
+                return null;
+            }
+
+            @Override
+            protected void succeeded() {
+                mOutputBox.getItems().add("Saved " + changeSet.size() + " changes to " + file);
+            }
+
+            @Override
+            protected void failed() {
+                mOutputBox.getItems().add("Couldn't save the plan " + file + ": " + getException());
+            }
+        };
+
+        startWorker(save);
+    }
+
+    public void onWriteChangesButtonClick() {
+        CommitWorker committer = new CommitWorker(mOutputBox, mChangeSet, mMetrics);
 
         mProgressBar.progressProperty().unbind();
         mProgressBar.setProgress(0);
         mProgressBar.progressProperty().bind(committer.progressProperty());
 
-        Thread mThread = new Thread(committer);
-        mThread.setDaemon(true);
-        mThread.start();
+        startWorker(committer);
     }
 
     // ------------------------------------------------------------------------
@@ -98,5 +197,54 @@ public class Controller {
 
     public void setStage(Stage stage) {
         mStage = stage;
+        mPlanChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Plans", "*.plan"));
+        mReportChooser.getExtensionFilters().addAll(new FileChooser.ExtensionFilter("CSV", "*.csv"),
+                new FileChooser.ExtensionFilter("JSON lines", "*.jsonl", "*.json"));
+    }
+
+    // ------------------------------------------------------------------------
+    // Private Methods
+    // ------------------------------------------------------------------------
+
+    private void startWorker(Task<?> task) {
+        Thread thread = new Thread(task);
+        thread.setDaemon(true);
+
+        mWorkers.removeIf(worker -> !worker.isAlive());
+        mWorkers.add(thread);
+        thread.start();
+    }
+
+    // a cancelled scan stops at its own pace, and a commit or save can't be stopped, so the ChangeSet is closed off
+    // the JavaFX thread once they're done with it
+    private void closeChangeSet() {
+        if (mChangeSet == null) {
+            return;
+        }
+
+        ChangeSet changeSet = mChangeSet;
+        Thread[] workers = mWorkers.toArray(new Thread[0]);
+        mChangeSet = null;
+        mWorkers.clear();
+
+        Thread closer = new Thread(() -> {
+            for (Thread worker : workers) {
+                while (worker.isAlive()) {
+                    try {
+                        worker.join();
+                    } catch (InterruptedException e) {
+                        // nothing interrupts this thread, and closing early is what it's here to stop
+                    }
+                }
+            }
+
+            try {
+                changeSet.close();
+            } catch (IOException e) {
+                // only the spill file, and that's a temp file
+            }
+        });
+        closer.setDaemon(true);
+        closer.start();
     }
 }
@@ -0,0 +1,10 @@
+package com.thirtyonetensoftware.renamemediatool;
+
+// where a MediaItem's date/time came from, in the order they're tried
+public enum DateSource {
+    EXIF,
+    // mvhd or udta/©day in an mp4 / mov
+    VIDEO,
+    FILENAME,
+    LAST_MODIFIED
+}
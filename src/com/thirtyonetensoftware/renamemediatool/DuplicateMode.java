@@ -0,0 +1,11 @@
+package com.thirtyonetensoftware.renamemediatool;
+
+// what the scan does with a file that has the same contents as one it's already seen
+public enum DuplicateMode {
+    // don't look for duplicates
+    OFF,
+    // print them, but change them like any other file
+    REPORT,
+    // print them and leave them out of the changes
+    SKIP
+}
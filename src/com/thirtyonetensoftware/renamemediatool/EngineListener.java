@@ -0,0 +1,18 @@
+package com.thirtyonetensoftware.renamemediatool;
+
+/*
+ * how the scan and commit engines talk to whatever is running them: the JavaFX workers, or the command line.
+ * calls come from the thread running the engine.
+ */
+public interface EngineListener {
+
+    void onMessage(String text);
+
+    void onProgress(long workDone, long max);
+
+    boolean isCancelled();
+
+    // called for every item that will get a new date/time or filename
+    default void onChange(MediaItem item) {
+    }
+}
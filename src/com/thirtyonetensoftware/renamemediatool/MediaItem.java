@@ -1,34 +1,24 @@
 package com.thirtyonetensoftware.renamemediatool;
 
-import com.thirtyonetensoftware.renamemediatool.support.FilenameTester;
-import org.apache.sanselan.ImageReadException;
-import org.apache.sanselan.ImageWriteException;
-import org.apache.sanselan.Sanselan;
-import org.apache.sanselan.common.IImageMetadata;
-import org.apache.sanselan.formats.jpeg.JpegImageMetadata;
-import org.apache.sanselan.formats.jpeg.exifRewrite.ExifRewriter;
-import org.apache.sanselan.formats.tiff.TiffField;
-import org.apache.sanselan.formats.tiff.TiffImageMetadata;
-import org.apache.sanselan.formats.tiff.constants.ExifTagConstants;
-import org.apache.sanselan.formats.tiff.constants.TiffConstants;
-import org.apache.sanselan.formats.tiff.write.TiffOutputDirectory;
-import org.apache.sanselan.formats.tiff.write.TiffOutputField;
-import org.apache.sanselan.formats.tiff.write.TiffOutputSet;
-
-import java.io.BufferedOutputStream;
+import com.thirtyonetensoftware.renamemediatool.support.DateTimes;
+import com.thirtyonetensoftware.renamemediatool.support.FilenameMatcher;
+import com.thirtyonetensoftware.renamemediatool.support.IoScheduler;
+import com.thirtyonetensoftware.renamemediatool.support.MetadataException;
+import com.thirtyonetensoftware.renamemediatool.support.MetadataHandler;
+import com.thirtyonetensoftware.renamemediatool.support.MetadataHandlers;
+import com.thirtyonetensoftware.renamemediatool.support.Metrics;
+import com.thirtyonetensoftware.renamemediatool.support.ScanCache;
+
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.Date;
-import java.util.UUID;
+import java.time.LocalDateTime;
 
 public class MediaItem implements Comparable<MediaItem> {
 
@@ -36,39 +26,82 @@ public class MediaItem implements Comparable<MediaItem> {
     // Class Variables
     // ------------------------------------------------------------------------
 
-    // EXIF Date/Time format
-    private static final SimpleDateFormat mFormat = new SimpleDateFormat("yyyy:MM:dd HH:mm:ss");
-
-    // Filename format
-    private static final SimpleDateFormat mFilenameFormat = new SimpleDateFormat("yyyy-MM-dd_HHmmss_");
-
     private static final String DATE_CREATED_KEY = "creationTime";
 
+    // what commitNewDateTime() writes, see getDateTargets()
+    public static final int TARGET_METADATA = 1;
+    public static final int TARGET_LAST_MODIFIED = 2;
+    public static final int TARGET_DATE_CREATED = 4;
+
     // ------------------------------------------------------------------------
     // Instance Variables
     // ------------------------------------------------------------------------
 
     private File mFile;
 
-    private ArrayList<FilenameTester> mFilenameTesters = new ArrayList<>();
+    private BasicFileAttributes mAttributes;
+
+    private final FilenameMatcher mFilenameMatcher;
+
+    // epoch millis, like everything else here
+    private long mDateTime;
+
+    // DateTimes.NONE if the file system doesn't keep one
+    private long mDateCreated = DateTimes.NONE;
 
-    private Date mDateTime;
+    private long mLastModified;
 
-    private Date mDateCreated;
+    private long mSize;
+
+    // the date/time kept inside the file when it was scanned, DateTimes.NONE if it hasn't got one
+    private long mMetadataDateTime = DateTimes.NONE;
+
+    // true if the file's format keeps a date/time that can be written
+    private boolean mMetadataWritable = false;
+
+    private DateSource mDateSource;
 
     private String mNewFilename;
 
+    private int mNewFilenameCount;
+
     private String mTempName;
 
+    // null if the file stays in its directory
+    private String mNewDirectory;
+
     private String mErrorMessage;
 
     // ------------------------------------------------------------------------
     // Constructors
     // ------------------------------------------------------------------------
 
-    public MediaItem(File file, ArrayList<FilenameTester> testers) {
+    public MediaItem(File file, FilenameMatcher filenameMatcher) {
+        this(file, null, filenameMatcher);
+    }
+
+    // attributes from the directory listing, saves stat-ing the file again for lastModified and creationTime
+    public MediaItem(File file, BasicFileAttributes attributes, FilenameMatcher filenameMatcher) {
         mFile = file;
-        mFilenameTesters = testers;
+        mAttributes = attributes;
+        mFilenameMatcher = filenameMatcher;
+    }
+
+    // a change read back out of a ChangeSet, ready to commit
+    MediaItem(File file, long dateTime, long dateCreated, long lastModified, long size, long metadataDateTime,
+              boolean metadataWritable, DateSource source, String newFilename, String tempName, String newDirectory) {
+        mFile = file;
+        mFilenameMatcher = null;
+        mDateTime = dateTime;
+        mDateCreated = dateCreated;
+        mLastModified = lastModified;
+        mSize = size;
+        mMetadataDateTime = metadataDateTime;
+        mMetadataWritable = metadataWritable;
+        mDateSource = source;
+        mNewFilename = newFilename;
+        mTempName = tempName;
+        mNewDirectory = newDirectory;
     }
 
     // ------------------------------------------------------------------------
@@ -77,21 +110,12 @@ public class MediaItem implements Comparable<MediaItem> {
 
     @Override
     public int compareTo(MediaItem item) {
-        int distance = 0;
-
         // first compare by date
-        Date thisDateTime = getDateTime();
-        Date thatDateTime = item.getDateTime();
-
-        if (thisDateTime == null && thatDateTime == null) {
-            distance = 0;
-        } else if (thisDateTime != null) {
-            distance = thisDateTime.compareTo(thatDateTime);
-        }
+        int distance = Long.compare(mDateTime, item.mDateTime);
 
         // if dates are the same, compare by filename
         if (distance == 0) {
-            distance = mFile.getName().compareToIgnoreCase(mFile.getName());
+            distance = mFile.getName().compareToIgnoreCase(item.mFile.getName());
         }
 
         return distance;
@@ -105,118 +129,200 @@ public class MediaItem implements Comparable<MediaItem> {
         return mErrorMessage;
     }
 
-    public Date getDateTime() {
+    public long getDateTime() {
         return mDateTime;
     }
 
-    public void setDateTime(Date dateTime) {
+    public void setDateTime(long dateTime) {
         mDateTime = dateTime;
     }
 
     public boolean hasNewDateTime() {
-        return !mDateTime.equals(mDateCreated);
+        return getDateTargets() != 0;
     }
 
-    public boolean determineDateTime() {
+    /**
+     * each of the file's date/times is compared to the new one, to the second, and only the ones that differ are
+     * written: a jpeg whose EXIF is already right just gets a stat-sized update, not a rewrite.
+     *
+     * @return TARGET_ flags for what commitNewDateTime() will write, 0 if the file's date/times are all right already
+     */
+    public int getDateTargets() {
+        return dateTargets(mDateTime, mMetadataDateTime, mMetadataWritable, mLastModified, mDateCreated);
+    }
+
+    static int dateTargets(long dateTime, long metadataDateTime, boolean metadataWritable, long lastModified,
+                           long dateCreated) {
+        if (metadataWritable && (metadataDateTime == DateTimes.NONE || !DateTimes.isSameSecond(metadataDateTime, dateTime))) {
+            // writing inside the file changes lastModified, and a full rewrite makes a new file with a new dateCreated
+            return TARGET_METADATA | TARGET_LAST_MODIFIED | TARGET_DATE_CREATED;
+        }
+
+        int targets = 0;
+        if (!DateTimes.isSameSecond(lastModified, dateTime)) {
+            targets |= TARGET_LAST_MODIFIED;
+        }
+        if (dateCreated == DateTimes.NONE || !DateTimes.isSameSecond(dateCreated, dateTime)) {
+            targets |= TARGET_DATE_CREATED;
+        }
+        return targets;
+    }
+
+    // the file's creationTime when it was scanned, DateTimes.NONE if the file system doesn't keep one
+    public long getDateCreated() {
+        return mDateCreated;
+    }
+
+    // the file's lastModified when it was scanned
+    public long getLastModified() {
+        return mLastModified;
+    }
+
+    // the file's size when it was scanned
+    public long getSize() {
+        return mSize;
+    }
+
+    // the date/time kept inside the file when it was scanned, DateTimes.NONE if it hasn't got one
+    public long getMetadataDateTime() {
+        return mMetadataDateTime;
+    }
+
+    public boolean isMetadataWritable() {
+        return mMetadataWritable;
+    }
+
+    public DateSource getDateSource() {
+        return mDateSource;
+    }
+
+    public boolean determineDateTime(DateTimes dateTimes) {
+        return determineDateTime(dateTimes, null);
+    }
+
+    public boolean determineDateTime(DateTimes dateTimes, ScanCache cache) {
+        return determineDateTime(dateTimes, cache, null);
+    }
+
+    public boolean determineDateTime(DateTimes dateTimes, ScanCache cache, Metrics metrics) {
+        return determineDateTime(dateTimes, cache, metrics, null);
+    }
+
+    /**
+     * @param dateTimes the zone local date/times in the file and its name are read in
+     * @param cache     if not null, used instead of reading the file when the file hasn't changed since the last scan
+     * @param metrics   if not null, bytes read, read latencies and errors are counted in it
+     * @param store     if not null, reads are held to its bytes/sec cap
+     */
+    public boolean determineDateTime(DateTimes dateTimes, ScanCache cache, Metrics metrics, IoScheduler.Store store) {
         try {
-            String filename = mFile.getName().toLowerCase();
-            Date dateTime = null;
-
-            // if it's a jpeg, try to get the date time from the exif
-            if (filename.endsWith(".jpeg") | filename.endsWith(".jpg")) {
-                TiffField dateTimeValue = null;
-
-                // attempt to read the EXIF data
-                IImageMetadata metadata = Sanselan.getMetadata(mFile);
-                if (metadata instanceof JpegImageMetadata) {
-                    JpegImageMetadata jpegMetadata = (JpegImageMetadata) metadata;
-                    // read the date/time tag out
-                    dateTimeValue = jpegMetadata.findEXIFValue(ExifTagConstants.EXIF_TAG_DATE_TIME_ORIGINAL);
-
-                    if (dateTimeValue == null) {
-                        dateTimeValue = jpegMetadata.findEXIFValue(ExifTagConstants.EXIF_TAG_CREATE_DATE);
-                    }
+            BasicFileAttributes attributes = mAttributes != null ? mAttributes :
+                    Files.readAttributes(mFile.toPath(), BasicFileAttributes.class);
+            long size = attributes.size();
+            long lastModified = attributes.lastModifiedTime().toMillis();
+            mLastModified = lastModified;
+            mSize = size;
+
+            // get the Date Created field
+            FileTime dateCreated = attributes.creationTime();
+            if (dateCreated != null) {
+                mDateCreated = dateCreated.toMillis();
+            }
+
+            if (cache != null) {
+                ScanCache.Entry entry = cache.get(mFile, size, lastModified);
+                if (entry != null) {
+                    mDateTime = entry.dateTime;
+                    mDateSource = entry.source;
+                    mMetadataDateTime = entry.metadataDateTime;
+                    mMetadataWritable = entry.metadataWritable;
+                    return true;
                 }
+            }
+
+            long dateTime = DateTimes.NONE;
+            DateSource source = null;
 
-                if (dateTimeValue != null) {
-                    dateTime = mFormat.parse(dateTimeValue.getStringValue().trim());
+            // if the file's format keeps a date/time inside the file, use that
+            FileChannel opened = FileChannel.open(mFile.toPath(), StandardOpenOption.READ);
+            if (store != null) {
+                opened = store.throttle(opened);
+            }
+            try (FileChannel channel = metrics != null ? metrics.count(opened) : opened) {
+                MetadataHandler handler = MetadataHandlers.find(channel);
+                if (handler != null) {
+                    long start = System.nanoTime();
+                    long metadataDateTime = handler.readDateTime(mFile, channel, dateTimes);
+                    if (metrics != null) {
+                        metrics.latency("read." + handler.getDateSource()).record(System.nanoTime() - start);
+                    }
+                    if (metadataDateTime != DateTimes.NONE) {
+                        dateTime = metadataDateTime;
+                        source = handler.getDateSource();
+                        mMetadataDateTime = metadataDateTime;
+                    }
+                    mMetadataWritable = handler.canWriteDateTime();
                 }
             }
 
             // if there's no date/time value, try to determine one from the file's name
-            if (dateTime == null) {
-                dateTime = parseFilenameForDateTime(mFile);
+            if (source == null) {
+                LocalDateTime parsed = mFilenameMatcher.parse(mFile.getName());
+                if (parsed != null) {
+                    dateTime = dateTimes.toEpochMillis(parsed);
+                    source = DateSource.FILENAME;
+                }
             }
 
-            /*
-             * if still no date/time value, use file's last modified
-             * lastModified will always return a time milliseconds, and date can always convert that long
-             * so dateTime will never be null at the end of this method
-             */
-            if (dateTime == null) {
-                dateTime = new Date(mFile.lastModified());
+            // if still no date/time value, use file's last modified, which is always there
+            if (source == null) {
+                dateTime = lastModified;
+                source = DateSource.LAST_MODIFIED;
             }
 
-            // get the Date Created field
-            FileTime dateCreated = (FileTime) Files.getAttribute(mFile.toPath(), DATE_CREATED_KEY);
-            if (dateCreated != null) {
-                mDateCreated = new Date(dateCreated.toMillis());
-            }
+            mDateTime = dateTime;
+            mDateSource = source;
 
-            Calendar calendar = Calendar.getInstance();
-            calendar.setTime(dateTime);
-            mDateTime = calendar.getTime();
+            if (cache != null) {
+                cache.put(mFile, size, lastModified, mDateTime, mDateSource, mDateCreated, mMetadataDateTime,
+                        mMetadataWritable);
+            }
 
             return true;
-        } catch (ImageReadException | IOException | ParseException e) {
+        } catch (IOException | MetadataException e) {
+            if (metrics != null) {
+                metrics.error(e);
+            }
             mErrorMessage = "\n\n" + mFile.getPath() + " ERROR: " + e.getMessage() + "\n";
             return false;
         }
     }
 
-    public void commitNewDateTime() throws IOException, ImageReadException, ImageWriteException {
-        Date dateTime = getDateTime();
-
-        String filename = mFile.getName().toLowerCase();
-        if (filename.endsWith(".jpeg") | filename.endsWith(".jpg")) {
-            TiffOutputSet outputSet = new TiffOutputSet();
-
-            // attempt to read the EXIF data
-            IImageMetadata metadata = Sanselan.getMetadata(mFile);
-            if (metadata instanceof JpegImageMetadata) {
-                JpegImageMetadata jpegMetadata = (JpegImageMetadata) metadata;
+    // writes the date/time to what getDateTargets() says needs it, in the zone it was read in
+    public void commitNewDateTime(DateTimes dateTimes) throws IOException, MetadataException {
+        long dateTime = getDateTime();
+        int targets = getDateTargets();
 
-                TiffImageMetadata exif = jpegMetadata.getExif();
-                if (exif != null) {
-                    outputSet = exif.getOutputSet();
-                }
+        if ((targets & TARGET_METADATA) != 0) {
+            MetadataHandler handler;
+            try (FileChannel channel = FileChannel.open(mFile.toPath(), StandardOpenOption.READ)) {
+                handler = MetadataHandlers.find(channel);
             }
 
-            String newDateTimeValue = mFormat.format(dateTime);
-
-            TiffOutputField new_date_time_orig_field = new TiffOutputField(TiffConstants.EXIF_TAG_DATE_TIME_ORIGINAL,
-                    TiffConstants.FIELD_TYPE_ASCII,
-                    newDateTimeValue.length(),
-                    newDateTimeValue.getBytes());
-            TiffOutputField new_create_date_field = new TiffOutputField(TiffConstants.EXIF_TAG_CREATE_DATE,
-                    TiffConstants.FIELD_TYPE_ASCII,
-                    newDateTimeValue.length(),
-                    newDateTimeValue.getBytes());
-
-            TiffOutputDirectory exif = outputSet.getOrCreateExifDirectory();
-            exif.removeField(ExifTagConstants.EXIF_TAG_DATE_TIME_ORIGINAL);
-            exif.removeField(ExifTagConstants.EXIF_TAG_CREATE_DATE);
-            exif.add(new_date_time_orig_field);
-            exif.add(new_create_date_field);
-
-            saveExifToJpeg(mFile, outputSet);
+            if (handler != null) {
+                handler.writeDateTime(mFile, dateTime, dateTimes);
+            }
         }
 
-        long dateTimeInMillis = dateTime.getTime();
         // write to lastModified
-        mFile.setLastModified(dateTimeInMillis);
+        if ((targets & TARGET_LAST_MODIFIED) != 0) {
+            // File.setLastModified() won't take a date/time before 1970
+            Files.setLastModifiedTime(mFile.toPath(), FileTime.fromMillis(dateTime));
+        }
         // write to dateCreated
-        Files.setAttribute(mFile.toPath(), DATE_CREATED_KEY, FileTime.fromMillis(dateTimeInMillis));
+        if ((targets & TARGET_DATE_CREATED) != 0) {
+            Files.setAttribute(mFile.toPath(), DATE_CREATED_KEY, FileTime.fromMillis(dateTime));
+        }
     }
 
     public String getNewFilename() {
@@ -227,74 +333,102 @@ public class MediaItem implements Comparable<MediaItem> {
         return mNewFilename != null;
     }
 
-    public void generateNewFilename(int count) {
+    // 0 if the file keeps its name
+    public int getNewFilenameCount() {
+        return mNewFilenameCount;
+    }
+
+    public void generateNewFilename(int count, DateTimes dateTimes) {
         String currentName = mFile.getName();
+        String newFilename = newFilename(currentName, getDateTime(), count, dateTimes);
 
-        int dot = currentName.lastIndexOf(".");
-        String extension = currentName.substring(dot).toLowerCase();
+        if (!newFilename.equals(currentName)) {
+            mNewFilename = newFilename;
+            mNewFilenameCount = count;
+        }
+    }
 
-        String newBaseFilename = mFilenameFormat.format(getDateTime()) +
-                (String.format("%02d", count));
+    public String getNewDirectory() {
+        return mNewDirectory;
+    }
 
-        String newFilename = newBaseFilename + extension;
+    // moves the file to another directory when its new filename is written, keeping its name if it doesn't get one
+    public void setNewDirectory(String directory) {
+        if (directory.equals(getDirectory())) {
+            return;
+        }
 
-        if (!newFilename.equals(currentName)) {
-            mTempName = newBaseFilename + UUID.randomUUID() + extension + ".temp";
+        mNewDirectory = directory;
+        if (mNewFilename == null) {
+            mNewFilename = mFile.getName();
+        }
+    }
 
-            mNewFilename = newFilename;
+    public static String newFilename(String currentName, long dateTime, int count, DateTimes dateTimes) {
+        int dot = currentName.lastIndexOf(".");
+
+        // yyyy-MM-dd_HHmmss_NN.ext
+        StringBuilder builder = new StringBuilder(24 + currentName.length() - dot);
+        DateTimes.appendTwoDigits(dateTimes.appendFilename(builder, dateTime), count);
+        for (int i = dot; i < currentName.length(); i++) {
+            builder.append(Character.toLowerCase(currentName.charAt(i)));
         }
+
+        return builder.toString();
     }
 
-    public void commitTempFilename() {
+    // Files.move() rather than File.renameTo(), which fails silently and replaces an existing file on some platforms
+    public void commitTempFilename() throws IOException {
         Path path = Paths.get(mFile.toURI());
-        File tempFile = path.resolveSibling(mTempName).toFile();
 
-        mFile.renameTo(tempFile);
         // update mFile to point to the new File
-        mFile = tempFile;
+        mFile = Files.move(path, path.resolveSibling(mTempName)).toFile();
     }
 
-    public void commitNewFilename() {
+    // for a copy made after commitTempFilename() was done on another copy of the same file
+    public void useTempFilename() {
+        mFile = new File(getTempFilepath());
+    }
+
+    public void commitNewFilename() throws IOException {
         Path path = Paths.get(mFile.toURI());
-        File newFile = path.resolveSibling(mNewFilename).toFile();
+        Path newPath;
 
-        mFile.renameTo(newFile);
-        // update mFile to point to the new File
-        mFile = newFile;
+        if (mNewDirectory == null) {
+            newPath = path.resolveSibling(mNewFilename);
+        } else {
+            newPath = Paths.get(mNewDirectory, mNewFilename);
+            Files.createDirectories(newPath.getParent());
+        }
+
+        // never replaces an existing file, a name that's taken fails the item instead
+        mFile = Files.move(path, newPath).toFile();
     }
 
     public String getFilepath() {
         return mFile == null ? null : mFile.getPath();
     }
 
-    // ------------------------------------------------------------------------
-    // Private Methods
-    // ------------------------------------------------------------------------
-
-    private Date parseFilenameForDateTime(File file) {
-        String filename = file.getName();
-        Date date;
-
-        for (FilenameTester tester : mFilenameTesters) {
-            if ((date = tester.parseFilenameForDateTime(filename)) != null) {
-                return date;
-            }
-        }
-
-        return null;
+    public String getFilename() {
+        return mFile.getName();
     }
 
-    private void saveExifToJpeg(File jpegFile, TiffOutputSet exif)
-            throws IOException, ImageWriteException, ImageReadException {
-        String tempFileName = jpegFile.getAbsolutePath() + ".tmp";
-        File tempFile = new File(tempFileName);
+    public String getAbsoluteFilepath() {
+        return mFile.getAbsolutePath();
+    }
 
-        BufferedOutputStream tempStream = new BufferedOutputStream(new FileOutputStream(tempFile));
-        new ExifRewriter().updateExifMetadataLossless(jpegFile, tempStream, exif);
-        tempStream.close();
+    public String getTempFilepath() {
+        return mFile.getAbsoluteFile().toPath().resolveSibling(mTempName).toString();
+    }
 
-        if (jpegFile.delete()) {
-            tempFile.renameTo(jpegFile);
+    public String getNewFilepath() {
+        if (mNewDirectory != null) {
+            return Paths.get(mNewDirectory, mNewFilename).toString();
         }
+        return mFile.getAbsoluteFile().toPath().resolveSibling(mNewFilename).toString();
+    }
+
+    public String getDirectory() {
+        return mFile.getAbsoluteFile().getParent();
     }
 }
@@ -1,30 +1,72 @@
 package com.thirtyonetensoftware.renamemediatool;
 
+import com.thirtyonetensoftware.renamemediatool.support.DateTimes;
 import javafx.animation.AnimationTimer;
-import javafx.scene.control.TextArea;
+import javafx.collections.ObservableList;
+import javafx.scene.control.ListView;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/*
+ * moves messages from the worker threads onto the screen. workers add to a lock free queue, and once a frame the
+ * queue is drained into the ListView, one item per line. only the last MAX_LINES lines are kept on screen, everything
+ * is also written to a log file so nothing is lost, once the worker has opened it. only the last KEEP_LOGS log files
+ * are kept.
+ */
 public class MessageConsumer extends AnimationTimer {
 
     // ------------------------------------------------------------------------
     // Class Variables
     // ------------------------------------------------------------------------
 
-    private static final int CAPACITY = 150000;
+    private static final int MAX_LINES = 10000;
+
+    private static final Path LOG_DIRECTORY = Paths.get(System.getProperty("user.home"), ".renamemediatool", "logs");
+
+    // every scan and commit in the app makes one
+    private static final int KEEP_LOGS = 20;
 
     // ------------------------------------------------------------------------
     // Instance Variables
     // ------------------------------------------------------------------------
 
-    private final TextArea mTextArea;
+    private final ListView<String> mListView;
+
+    private final ConcurrentLinkedQueue<String> mQueue = new ConcurrentLinkedQueue<>();
+
+    // true if the last item in the list is a line that hasn't ended yet
+    private boolean mLineOpen = false;
 
-    private StringBuffer buffer = new StringBuffer(CAPACITY);
+    // opened by openLog() on the worker's thread, then only used on the JavaFX thread
+    private volatile BufferedWriter mLog;
+
+    // true once openLog() has got as far as it will, whether there's a log or not
+    private volatile boolean mLogOpened = false;
+
+    // text handled before the log was opened, written to it first
+    private final StringBuilder mUnlogged = new StringBuilder();
+
+    // set by close(), so a log opened after it is closed again. guarded by this
+    private boolean mClosed = false;
 
     // ------------------------------------------------------------------------
     // Constructors
     // ------------------------------------------------------------------------
 
-    public MessageConsumer(TextArea textArea) {
-        mTextArea = textArea;
+    public MessageConsumer(ListView<String> listView) {
+        mListView = listView;
     }
 
     // ------------------------------------------------------------------------
@@ -32,16 +74,185 @@ public class MessageConsumer extends AnimationTimer {
     // ------------------------------------------------------------------------
 
     @Override
-    public synchronized void handle(long now) {
-        mTextArea.appendText(buffer.toString());
-        buffer = new StringBuffer(CAPACITY);
+    public void handle(long now) {
+        String text = mQueue.poll();
+        if (text == null) {
+            // nothing new this frame
+            return;
+        }
+
+        StringBuilder builder = new StringBuilder(text);
+        while ((text = mQueue.poll()) != null) {
+            builder.append(text);
+        }
+
+        if (mLogOpened) {
+            if (mUnlogged.length() > 0) {
+                writeLog(mUnlogged);
+                mUnlogged.setLength(0);
+            }
+            writeLog(builder);
+        } else {
+            mUnlogged.append(builder);
+        }
+        appendLines(builder);
     }
 
     // ------------------------------------------------------------------------
     // Public Methods
     // ------------------------------------------------------------------------
 
-    public synchronized void add(String text) {
-        buffer.append(text);
+    public void add(String text) {
+        mQueue.add(text);
+    }
+
+    /**
+     * makes room in the log directory and opens a new log file. call on the worker's thread, it's disk work the
+     * JavaFX thread shouldn't wait on. nothing is logged until it's done
+     */
+    public void openLog() {
+        BufferedWriter writer = null;
+        String message;
+        try {
+            Files.createDirectories(LOG_DIRECTORY);
+            pruneLogs();
+            Path log = LOG_DIRECTORY.resolve(DateTimes.STAMP_FORMAT.format(LocalDateTime.now()) + "-" +
+                    UUID.randomUUID().toString().substring(0, 8) + ".log");
+            writer = Files.newBufferedWriter(log, StandardCharsets.UTF_8);
+            message = "Full output: " + log + "\n\n";
+        } catch (IOException e) {
+            message = "Couldn't create a log file, only the last " + MAX_LINES + " lines will be kept: " + e + "\n\n";
+        }
+
+        synchronized (this) {
+            if (mClosed) {
+                // cancelled while it was being opened
+                closeQuietly(writer);
+                return;
+            }
+            mLog = writer;
+            mLogOpened = true;
+        }
+
+        add(message);
+    }
+
+    /**
+     * shows anything still queued, stops updating and closes the log file. call on the JavaFX thread
+     */
+    public void close() {
+        handle(0);
+        stop();
+
+        synchronized (this) {
+            mClosed = true;
+            closeQuietly(mLog);
+            mLog = null;
+        }
+        mUnlogged.setLength(0);
+    }
+
+    // ------------------------------------------------------------------------
+    // Private Methods
+    // ------------------------------------------------------------------------
+
+    // makes room for one more. the oldest by lastModified go first
+    private static void pruneLogs() {
+        ArrayList<Path> logs = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(LOG_DIRECTORY, "*.log")) {
+            for (Path log : stream) {
+                logs.add(log);
+            }
+        } catch (IOException e) {
+            return;
+        }
+
+        if (logs.size() < KEEP_LOGS) {
+            return;
+        }
+
+        HashMap<Path, Long> modified = new HashMap<>();
+        for (Path log : logs) {
+            modified.put(log, log.toFile().lastModified());
+        }
+        logs.sort(Comparator.comparing(modified::get));
+
+        for (int i = 0; i <= logs.size() - KEEP_LOGS; i++) {
+            try {
+                Files.deleteIfExists(logs.get(i));
+            } catch (IOException e) {
+                // tried again next time
+            }
+        }
+    }
+
+    private static void closeQuietly(BufferedWriter writer) {
+        if (writer == null) {
+            return;
+        }
+
+        try {
+            writer.close();
+        } catch (IOException e) {
+            // the log is a convenience, the messages were shown
+        }
+    }
+
+    private void writeLog(CharSequence text) {
+        if (mLog == null) {
+            return;
+        }
+
+        try {
+            mLog.append(text);
+            mLog.flush();
+        } catch (IOException e) {
+            mLog = null;
+            appendLines("\nCouldn't write to the log file, only the last " + MAX_LINES + " lines will be kept: " + e);
+        }
+    }
+
+    private void appendLines(CharSequence text) {
+        ObservableList<String> items = mListView.getItems();
+
+        int start = 0;
+        while (start <= text.length()) {
+            int end = indexOf(text, '\n', start);
+            boolean lineEnds = end >= 0;
+            if (!lineEnds) {
+                end = text.length();
+            }
+
+            if (end > start || lineEnds) {
+                String segment = text.subSequence(start, end).toString();
+                if (mLineOpen && !items.isEmpty()) {
+                    items.set(items.size() - 1, items.get(items.size() - 1) + segment);
+                } else {
+                    items.add(segment);
+                }
+                mLineOpen = !lineEnds;
+            }
+
+            if (!lineEnds) {
+                break;
+            }
+            start = end + 1;
+        }
+
+        // drop the oldest lines in one go, they're all in the log file
+        if (items.size() > MAX_LINES) {
+            items.remove(0, items.size() - MAX_LINES);
+        }
+
+        mListView.scrollTo(items.size() - 1);
+    }
+
+    private static int indexOf(CharSequence text, char c, int from) {
+        for (int i = from; i < text.length(); i++) {
+            if (text.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
     }
 }
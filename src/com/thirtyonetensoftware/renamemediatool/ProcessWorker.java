@@ -1,90 +1,55 @@
 package com.thirtyonetensoftware.renamemediatool;
 
-import com.thirtyonetensoftware.renamemediatool.filenametester.*;
-import com.thirtyonetensoftware.renamemediatool.support.FilenameTester;
+import com.thirtyonetensoftware.renamemediatool.support.Metrics;
+import javafx.application.Platform;
 import javafx.concurrent.Task;
-import javafx.scene.control.TextArea;
+import javafx.scene.control.ListView;
 
 import java.io.File;
-import java.io.FileFilter;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class ProcessWorker extends Task<Integer> {
+public class ProcessWorker extends Task<Integer> implements EngineListener {
 
     // ------------------------------------------------------------------------
     // Class Variables
     // ------------------------------------------------------------------------
 
-    private static final int SAME_TIME_SECONDS = 1;
+    private static final int NEW = 0;
 
-    // changes.csv display format
-    private static final SimpleDateFormat mOutputFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    private static final int RUNNING = 1;
+
+    private static final int DONE = 2;
+
+    private static final int CANCELLED = 3;
 
     // ------------------------------------------------------------------------
     // Instance Variables
     // ------------------------------------------------------------------------
 
-    private final File mFile;
-
-    private final boolean mStaggerDateTimes;
-
-    private final ArrayList<MediaItem> mChangeItems;
-
     private final Controller mController;
 
-    private int mFileCount = 0;
-
-    private final int PROGRESS_LOOPS;
-
-    private int mMaxProgress = 0;
-
-    private int mProgress = 0;
-
-    private final ArrayList<FilenameTester> mFilenameTesters = new ArrayList<>();
-
     private final MessageConsumer mMessageConsumer;
 
-    private final FileFilter mDirectoryFilter = File::isDirectory;
+    private final ScanEngine mEngine;
 
-    private final FileFilter mFileFilter = file -> {
-        String path = file.getPath().toLowerCase();
-        return path.endsWith(".jpeg") ||
-                path.endsWith(".jpg") ||
-                path.endsWith(".png") ||
-                path.endsWith(".bmp") ||
-                path.endsWith(".mp4") ||
-                path.endsWith(".mov");
-    };
+    // cancelled() is called as soon as cancel() is, while the engine may still be sending messages. whichever of the
+    // two comes last closes the MessageConsumer
+    private final AtomicInteger mState = new AtomicInteger(NEW);
 
     // ------------------------------------------------------------------------
     // Constructor
     // ------------------------------------------------------------------------
 
-    public ProcessWorker(Controller controller, TextArea textArea, File file, boolean staggerDateTimes,
-                         ArrayList<MediaItem> changeItems) {
+    public ProcessWorker(Controller controller, ListView<String> listView, File file, ScanOptions options,
+                         ChangeSet changeSet, Metrics metrics) {
         mController = controller;
-        mFile = file;
 
-        mStaggerDateTimes = staggerDateTimes;
-        PROGRESS_LOOPS = mStaggerDateTimes ? 4 : 3;
+        listView.getItems().clear();
 
-        mChangeItems = changeItems;
-
-        textArea.clear();
-
-        mMessageConsumer = new MessageConsumer(textArea);
+        mMessageConsumer = new MessageConsumer(listView);
         mMessageConsumer.start();
 
-        mFilenameTesters.clear();
-        mFilenameTesters.add(new YearDashMonthDashDayWithTime());
-        mFilenameTesters.add(new YearMonthDayTime());
-        // mFilenameTesters.add(new MonthDayYearTime());
-        mFilenameTesters.add(new YearDashMonthDashDay());
-        mFilenameTesters.add(new YearDashMonth());
-        mFilenameTesters.add(new YearMonthDay());
+        mEngine = new ScanEngine(file, options, changeSet, metrics, this);
     }
 
     // ------------------------------------------------------------------------
@@ -93,14 +58,25 @@ public class ProcessWorker extends Task<Integer> {
 
     @Override
     protected Integer call() throws Exception {
-        setup(mFile);
+        if (!mState.compareAndSet(NEW, RUNNING)) {
+            // cancelled before it started
+            return 0;
+        }
 
-        mMessageConsumer.add("\n\nSCANNING...");
+        mMessageConsumer.openLog();
 
-        int result = processDirectory(mFile);
+        int result;
+        try {
+            result = mEngine.run();
+        } finally {
+            if (mState.getAndSet(DONE) == CANCELLED) {
+                Platform.runLater(this::closeCancelled);
+            }
+        }
 
-        updateProgress(mFileCount, mFileCount);
-        mMessageConsumer.add("\n\nFINISHED");
+        if (isCancelled()) {
+            return result;
+        }
 
         if (result == 0) {
             mMessageConsumer.add("\n\n" + result + " issues found. Click button to write changes.");
@@ -117,185 +93,48 @@ public class ProcessWorker extends Task<Integer> {
     protected void cancelled() {
         super.cancelled();
 
-        updateProgress(mFileCount, mFileCount);
-        mMessageConsumer.add("\n\nCANCELLED");
+        if (mState.getAndSet(CANCELLED) != RUNNING) {
+            closeCancelled();
+        }
     }
 
-    // ------------------------------------------------------------------------
-    // Private Methods
-    // ------------------------------------------------------------------------
-
-    private void setup(File file) {
-        mFileCount = calculateTotalPhotos(file, 0);
-        mMaxProgress = mFileCount * PROGRESS_LOOPS;
+    @Override
+    protected void succeeded() {
+        super.succeeded();
 
-        mMessageConsumer.add("Number of files: " + String.valueOf(mFileCount));
+        mMessageConsumer.close();
     }
 
-    private int calculateTotalPhotos(File file, int max) {
-        File[] photos = file.listFiles(mFileFilter);
-        if (photos != null) {
-            max += photos.length;
-        }
-
-        File[] directories = file.listFiles(mDirectoryFilter);
-        if (directories != null) {
-            for (File directory : directories) {
-                max = calculateTotalPhotos(directory, max);
-            }
-        }
+    @Override
+    protected void failed() {
+        super.failed();
 
-        return max;
+        mMessageConsumer.add("\n\n" + getException());
+        mMessageConsumer.close();
     }
 
-    private int processDirectory(File file) {
-        int result = 0;
-
-        // process any media in the current directory
-        result += processFiles(file);
-
-        // process any directories in the current directory
-        File[] files = file.listFiles(mDirectoryFilter);
-        if (files != null) {
-            for (File f : files) {
-                result += processDirectory(f);
-            }
-        }
+    // ------------------------------------------------------------------------
+    // EngineListener Interface
+    // ------------------------------------------------------------------------
 
-        return result;
+    @Override
+    public void onMessage(String text) {
+        mMessageConsumer.add(text);
     }
 
-    private int processFiles(File file) {
-        int result = 0;
-
-        File[] files = file.listFiles(mFileFilter);
-        if (files == null) {
-            mMessageConsumer.add("\n\nNO FILES FOUND IN: " + file.getPath());
-            result++;
-            return result;
-        }
-
-        ArrayList<MediaItem> items = new ArrayList<>();
-        // for all the media, if we can determine a date/time, add it to the list
-        for (File f : files) {
-            if (isCancelled()) {
-                return result;
-            }
-
-            MediaItem item = new MediaItem(f, mFilenameTesters);
-
-            if (!item.determineDateTime()) {
-                mMessageConsumer.add("\n" + item.getErrorMessage());
-                result++;
-            } else {
-                items.add(item);
-            }
-
-            mProgress++;
-            updateProgress(mProgress, mMaxProgress);
-        }
-
-        // sort the items (will sort by date/time, then name)
-        Collections.sort(items);
-
-        if (mStaggerDateTimes) {
-            staggerDateTimes(items);
-        }
-
-        // calculate new filenames for the ones with newDateTime
-        Calendar calendar = Calendar.getInstance();
-        int count = 1, dayOfYear = -1, hourOfDay = -1, minute = -1, second = -1;
-        for (MediaItem item : items) {
-            calendar.setTime(item.getDateTime());
-
-            if (calendar.get(Calendar.DAY_OF_YEAR) == dayOfYear
-                    && calendar.get(Calendar.HOUR_OF_DAY) == hourOfDay
-                    && calendar.get(Calendar.MINUTE) == minute
-                    && calendar.get(Calendar.SECOND) == second) {
-                count++;
-            } else {
-                dayOfYear = calendar.get(Calendar.DAY_OF_YEAR);
-                hourOfDay = calendar.get(Calendar.HOUR_OF_DAY);
-                minute = calendar.get(Calendar.MINUTE);
-                second = calendar.get(Calendar.SECOND);
-                count = 1;
-            }
-
-            // if this returns true, then a file rename will occur
-            item.generateNewFilename(count);
-
-            mProgress++;
-            updateProgress(mProgress, mMaxProgress);
-        }
-
-        // loop through all media, if one will require a new date or filename, print it out
-        if (!items.isEmpty()) {
-            mMessageConsumer.add("\n" + String.format("%50s  |  %19s  |  %s", "file", "new datetime", "new filename"));
-        }
-        for (MediaItem item : items) {
-            if (isCancelled()) {
-                return result;
-            }
-
-            if (item.hasNewDateTime() || item.hasNewFilename()) {
-                // pad the filepath to at least 50 characters, left-aligned. 52 with the last 2 spaces
-                String formattedFilepath = String.format("%-50s  ", item.getFilepath());
-                // only show the last 52 characters
-                mMessageConsumer.add("\n" + formattedFilepath.substring(formattedFilepath.length() - 52));
-
-                if (item.hasNewDateTime()) {
-                    mMessageConsumer.add("|  " + mOutputFormat.format(item.getDateTime()) + "  |");
-                } else {
-                    // 19 spaces in the middle, for the same length as mOutputFormat
-                    mMessageConsumer.add("|                       |");
-                }
-
-                if (item.hasNewFilename()) {
-                    mMessageConsumer.add("  " + item.getNewFilename());
-                }
-
-                mChangeItems.add(item);
-            }
-
-            mProgress++;
-            updateProgress(mProgress, mMaxProgress);
-        }
-
-        return result;
+    @Override
+    public void onProgress(long workDone, long max) {
+        updateProgress(workDone, max);
     }
 
-    // recalculate new dates if date/times are the same for sequential files in the list
-    private void staggerDateTimes(ArrayList<MediaItem> items) {
-        for (int itemsIndex = 0; itemsIndex < items.size(); itemsIndex++) {
-            if (itemsIndex != items.size() - 1 &&
-                    items.get(itemsIndex).getDateTime().equals(items.get(itemsIndex + 1).getDateTime())) {
-                MediaItem item = items.get(itemsIndex);
-                ArrayList<MediaItem> itemsWithSameDateTime = new ArrayList<>();
-
-                for (int subItemsIndex = itemsIndex; subItemsIndex < items.size(); subItemsIndex++) {
-                    if (items.get(subItemsIndex).getDateTime().equals(item.getDateTime())) {
-                        itemsWithSameDateTime.add(items.get(subItemsIndex));
-                    }
-                }
-
-                Collections.sort(itemsWithSameDateTime);
-
-                int index = 0;
-                // get the date, add 5 seconds * index and set the date
-                // only do 1 second due to issue #1
-                for (MediaItem itemWithSameDateTime : itemsWithSameDateTime) {
-                    Calendar calendar = Calendar.getInstance();
-                    calendar.setTime(itemWithSameDateTime.getDateTime());
-                    calendar.add(Calendar.SECOND, index * SAME_TIME_SECONDS);
-
-                    itemWithSameDateTime.setDateTime(calendar.getTime());
-
-                    index++;
-                }
-            }
+    // ------------------------------------------------------------------------
+    // Private Methods
+    // ------------------------------------------------------------------------
 
-            mProgress++;
-            updateProgress(mProgress, mMaxProgress);
-        }
+    // on the JavaFX thread, once the engine has stopped
+    private void closeCancelled() {
+        updateProgress(mEngine.getFileCount(), mEngine.getFileCount());
+        mMessageConsumer.add("\n\nCANCELLED");
+        mMessageConsumer.close();
     }
 }
@@ -0,0 +1,225 @@
+package com.thirtyonetensoftware.renamemediatool;
+
+import com.thirtyonetensoftware.renamemediatool.support.CommitJournal;
+import com.thirtyonetensoftware.renamemediatool.support.DateTimes;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/*
+ * finishes (recover) or undoes (rollback) commits that died part way, from their CommitJournals.
+ *
+ * within a directory the journal says which pass the renames were in. before its FINAL record every file is on its
+ * old or temp name, after it every file is on its temp or new name, so each file's state is unambiguous.
+ *
+ * EXIF date/times can't be undone or replayed from the journal, only lastModified and creationTime. a rescan picks
+ * up any EXIF that still needs writing.
+ */
+public class RecoveryEngine {
+
+    // ------------------------------------------------------------------------
+    // Class Variables
+    // ------------------------------------------------------------------------
+
+    private static final String DATE_CREATED_KEY = "creationTime";
+
+    // ------------------------------------------------------------------------
+    // Instance Variables
+    // ------------------------------------------------------------------------
+
+    private final List<Path> mJournals;
+
+    private final boolean mRollback;
+
+    private final EngineListener mListener;
+
+    // ------------------------------------------------------------------------
+    // Constructor
+    // ------------------------------------------------------------------------
+
+    public RecoveryEngine(List<Path> journals, boolean rollback, EngineListener listener) {
+        mJournals = journals;
+        mRollback = rollback;
+        mListener = listener;
+    }
+
+    // ------------------------------------------------------------------------
+    // Public Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * @return the number of issues. a journal is deleted once it's been dealt with without any
+     */
+    public int run() {
+        int result = 0;
+
+        if (mJournals.isEmpty()) {
+            mListener.onMessage("No unfinished commits.");
+        }
+
+        for (Path journal : mJournals) {
+            mListener.onMessage((mRollback ? "ROLLING BACK " : "RECOVERING ") + journal);
+
+            int issues;
+            try {
+                issues = process(CommitJournal.read(journal));
+            } catch (IOException e) {
+                mListener.onMessage("\nCouldn't read " + journal + ": " + e);
+                issues = 1;
+            }
+
+            if (issues == 0) {
+                try {
+                    Files.delete(journal);
+                } catch (IOException e) {
+                    mListener.onMessage("\nCouldn't delete " + journal + ": " + e);
+                    issues++;
+                }
+            }
+
+            mListener.onMessage("\nFINISHED. " + issues + " issues.\n\n");
+            result += issues;
+        }
+
+        return result;
+    }
+
+    // ------------------------------------------------------------------------
+    // Private Methods
+    // ------------------------------------------------------------------------
+
+    private int process(List<String[]> records) {
+        int result = 0;
+
+        ArrayList<String[]> dates = new ArrayList<>();
+        LinkedHashMap<String, ArrayList<String[]>> renames = new LinkedHashMap<>();
+        HashSet<String> finalDirectories = new HashSet<>();
+        HashSet<String> doneDirectories = new HashSet<>();
+
+        for (String[] record : records) {
+            switch (record[0]) {
+                case CommitJournal.DATE:
+                    dates.add(record);
+                    break;
+                case CommitJournal.RENAME:
+                    String directory = Paths.get(record[1]).getParent().toString();
+                    renames.computeIfAbsent(directory, key -> new ArrayList<>()).add(record);
+                    break;
+                case CommitJournal.FINAL:
+                    finalDirectories.add(record[1]);
+                    break;
+                case CommitJournal.DONE:
+                    doneDirectories.add(record[1]);
+                    break;
+                case CommitJournal.COMPLETE:
+                    mListener.onMessage("\nThe commit finished, nothing to do.");
+                    return 0;
+            }
+        }
+
+        for (String directory : renames.keySet()) {
+            if (mRollback) {
+                // finished directories are undone as well
+                result += rollbackDirectory(renames.get(directory),
+                        finalDirectories.contains(directory) || doneDirectories.contains(directory));
+            } else if (!doneDirectories.contains(directory)) {
+                result += recoverDirectory(renames.get(directory), finalDirectories.contains(directory));
+            }
+        }
+
+        if (mRollback) {
+            // renames are undone first, so the files are back on the paths the date records have
+            for (String[] date : dates) {
+                result += setTimes(Paths.get(date[1]), Long.parseLong(date[2]), Long.parseLong(date[3]));
+            }
+        } else if (renames.isEmpty()) {
+            // the renames only start once every date/time is written, so only replay them if they hadn't
+            for (String[] date : dates) {
+                long dateTime = Long.parseLong(date[4]);
+                result += setTimes(Paths.get(date[1]), dateTime, dateTime);
+            }
+        }
+
+        return result;
+    }
+
+    private int recoverDirectory(ArrayList<String[]> renames, boolean finalPass) {
+        int result = 0;
+
+        if (!finalPass) {
+            // finish moving everything onto temp names
+            for (String[] rename : renames) {
+                Path oldPath = Paths.get(rename[1]), tempPath = Paths.get(rename[2]);
+                if (Files.exists(oldPath) && !Files.exists(tempPath)) {
+                    result += move(oldPath, tempPath);
+                }
+            }
+        }
+
+        for (String[] rename : renames) {
+            Path tempPath = Paths.get(rename[2]), newPath = Paths.get(rename[3]);
+            if (Files.exists(tempPath)) {
+                result += move(tempPath, newPath);
+            }
+        }
+
+        return result;
+    }
+
+    private int rollbackDirectory(ArrayList<String[]> renames, boolean finalPass) {
+        int result = 0;
+
+        if (finalPass) {
+            // everything that reached its new name goes back onto its temp name first
+            for (String[] rename : renames) {
+                Path tempPath = Paths.get(rename[2]), newPath = Paths.get(rename[3]);
+                if (!Files.exists(tempPath) && Files.exists(newPath)) {
+                    result += move(newPath, tempPath);
+                }
+            }
+        }
+
+        for (String[] rename : renames) {
+            Path oldPath = Paths.get(rename[1]), tempPath = Paths.get(rename[2]);
+            if (Files.exists(tempPath)) {
+                result += move(tempPath, oldPath);
+            }
+        }
+
+        return result;
+    }
+
+    // Files.move won't replace an existing file, so nothing gets overwritten
+    private int move(Path from, Path to) {
+        try {
+            // a relocated file's directory might not have been made yet
+            Files.createDirectories(to.getParent());
+            Files.move(from, to);
+            mListener.onMessage("\n" + from.getFileName() + " -> " + to.getFileName());
+            return 0;
+        } catch (IOException e) {
+            mListener.onMessage("\nCouldn't rename " + from + " to " + to + ": " + e);
+            return 1;
+        }
+    }
+
+    private int setTimes(Path path, long lastModified, long creationTime) {
+        try {
+            Files.setLastModifiedTime(path, FileTime.fromMillis(lastModified));
+            if (creationTime != DateTimes.NONE) {
+                Files.setAttribute(path, DATE_CREATED_KEY, FileTime.fromMillis(creationTime));
+            }
+            return 0;
+        } catch (IOException e) {
+            mListener.onMessage("\nCouldn't set the date/time of " + path + ": " + e);
+            return 1;
+        }
+    }
+}
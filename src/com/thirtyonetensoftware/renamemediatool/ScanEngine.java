@@ -0,0 +1,861 @@
+package com.thirtyonetensoftware.renamemediatool;
+
+import com.thirtyonetensoftware.renamemediatool.filenametester.*;
+import com.thirtyonetensoftware.renamemediatool.support.ChangeReport;
+import com.thirtyonetensoftware.renamemediatool.support.DateTimes;
+import com.thirtyonetensoftware.renamemediatool.support.DuplicateFinder;
+import com.thirtyonetensoftware.renamemediatool.support.FilenameMatcher;
+import com.thirtyonetensoftware.renamemediatool.support.FilenameTester;
+import com.thirtyonetensoftware.renamemediatool.support.IoScheduler;
+import com.thirtyonetensoftware.renamemediatool.support.MetadataHandlers;
+import com.thirtyonetensoftware.renamemediatool.support.Metrics;
+import com.thirtyonetensoftware.renamemediatool.support.ScanCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * finds media under a directory, works out date/times and new filenames, and collects the items that need changing.
+ * nothing here touches JavaFX, so it can be driven by ProcessWorker or by the command line.
+ */
+public class ScanEngine {
+
+    // ------------------------------------------------------------------------
+    // Class Variables
+    // ------------------------------------------------------------------------
+
+    // ------------------------------------------------------------------------
+    // Instance Variables
+    // ------------------------------------------------------------------------
+
+    private final File mFile;
+
+    private final boolean mStaggerDateTimes;
+
+    private final long mStaggerMillis;
+
+    private final StaggerOverflow mStaggerOverflow;
+
+    private final boolean mGlobalOrder;
+
+    private final boolean mRelocate;
+
+    // in global order every scanned file is kept here, one sorted run per directory, until they're merged
+    private ChangeSet mRuns;
+
+    // where each directory's run starts in mRuns
+    private final ArrayList<Integer> mRunStarts = new ArrayList<>();
+
+    private final ChangeSet mChangeSet;
+
+    private final EngineListener mListener;
+
+    private final Metrics mMetrics;
+
+    private int mFileCount = 0;
+
+    private int mDirectoriesVisited = 0;
+
+    private int mDirectoriesPending = 0;
+
+    private final int PROGRESS_LOOPS;
+
+    private int mMaxProgress = 0;
+
+    private int mProgress = 0;
+
+    private final FilenameMatcher mFilenameMatcher;
+
+    private final int mThreads;
+
+    private ExecutorService mExecutor;
+
+    private final IoScheduler mIoScheduler;
+
+    private final ScanCache mScanCache;
+
+    // the zone of mChangeSet, local date/times are read and names made in it
+    private final DateTimes mDateTimes;
+
+    private final Path mReportPath;
+
+    private final ChangeReport.Format mReportFormat;
+
+    private ChangeReport mReport;
+
+    private final DuplicateMode mDuplicateMode;
+
+    // null when duplicates aren't looked for
+    private final DuplicateFinder mDuplicateFinder;
+
+    private int mDuplicates = 0;
+
+    // paths of the skipped duplicates, lower case. they keep their names, so new names mustn't land on them
+    private final HashSet<String> mSkipped = new HashSet<>();
+
+    // ------------------------------------------------------------------------
+    // Constructor
+    // ------------------------------------------------------------------------
+
+    public ScanEngine(File file, ScanOptions options, ChangeSet changeSet, EngineListener listener) {
+        this(file, options, changeSet, new Metrics(null), listener);
+    }
+
+    public ScanEngine(File file, ScanOptions options, ChangeSet changeSet, Metrics metrics, EngineListener listener) {
+        mFile = file;
+        mMetrics = metrics;
+        mThreads = options.getThreads();
+        mIoScheduler = options.getIoScheduler();
+        mDateTimes = changeSet.getDateTimes();
+        mScanCache = options.isUseCache() ? ScanCache.forDirectory(file, changeSet.getZone()) : null;
+        mReportPath = options.getReport();
+        mReportFormat = options.getReportFormat();
+        mDuplicateMode = options.getDuplicateMode();
+        mDuplicateFinder = mDuplicateMode == DuplicateMode.OFF ? null : new DuplicateFinder(mScanCache, mIoScheduler);
+
+        mStaggerDateTimes = options.isStaggerDateTimes();
+        mStaggerMillis = options.getStaggerSeconds() * 1000L;
+        mStaggerOverflow = options.getStaggerOverflow();
+        PROGRESS_LOOPS = mStaggerDateTimes ? 4 : 3;
+        mGlobalOrder = options.isGlobalOrder();
+        mRelocate = options.isRelocate();
+
+        mChangeSet = changeSet;
+        mListener = listener;
+
+        // compiled once and shared by every MediaItem
+        mFilenameMatcher = createFilenameMatcher();
+        mMetrics.setFilenameMatcher(mFilenameMatcher);
+    }
+
+    // ------------------------------------------------------------------------
+    // Public Methods
+    // ------------------------------------------------------------------------
+
+    public static FilenameMatcher createFilenameMatcher() {
+        // in order of preference
+        ArrayList<FilenameTester> filenameTesters = new ArrayList<>();
+        filenameTesters.add(new YearDashMonthDashDayWithTime());
+        filenameTesters.add(new YearMonthDayTime());
+        // filenameTesters.add(new MonthDayYearTime());
+        filenameTesters.add(new YearDashMonthDashDay());
+        filenameTesters.add(new YearDashMonth());
+        filenameTesters.add(new YearMonthDay());
+        return new FilenameMatcher(filenameTesters);
+    }
+
+    /**
+     * @return the number of issues found. the changes are only safe to write if this is 0
+     */
+    public int run() {
+        return scan(new ArrayList<>(Collections.singletonList(mFile.toPath())), true);
+    }
+
+    /**
+     * scans only the given directories, without descending into their sub directories. each directory is still
+     * scanned in full, so its numbering comes out the same as a whole scan would make it.
+     *
+     * @return the number of issues found. the changes are only safe to write if this is 0
+     */
+    public int run(Collection<Path> directories) {
+        return scan(new ArrayList<>(directories), false);
+    }
+
+    public int getFileCount() {
+        return mFileCount;
+    }
+
+    public int getDuplicateCount() {
+        return mDuplicates;
+    }
+
+    // ------------------------------------------------------------------------
+    // Private Methods
+    // ------------------------------------------------------------------------
+
+    private int scan(ArrayList<Path> directories, boolean recursive) {
+        mMetrics.startScan();
+
+        loadScanCache();
+
+        int result = openReport();
+
+        mListener.onMessage("SCANNING...");
+
+        if (mGlobalOrder) {
+            mRuns = new ChangeSet(mChangeSet.getZone());
+        }
+
+        mExecutor = createExecutor(mThreads);
+        try {
+            for (Path directory : directories) {
+                if (isCancelled()) {
+                    break;
+                }
+                result += processDirectory(directory, recursive);
+            }
+
+            if (mGlobalOrder && !isCancelled()) {
+                result += mergeRuns();
+            }
+        } finally {
+            mExecutor.shutdownNow();
+            // entries for directories that weren't looked at are only dropped after a whole scan
+            saveScanCache(recursive && !isCancelled());
+            result += closeReport();
+            closeRuns();
+            finishMetrics();
+        }
+
+        if (isCancelled()) {
+            return result;
+        }
+
+        updateProgress(mFileCount, mFileCount);
+        mListener.onMessage("\n\nFINISHED");
+        mListener.onMessage("\n\nNumber of files: " + String.valueOf(mFileCount));
+        if (mScanCache != null) {
+            mListener.onMessage("\nUnchanged since last scan: " + mScanCache.getHits());
+        }
+        if (mDuplicateFinder != null) {
+            mListener.onMessage("\nDuplicates: " + mDuplicates
+                    + (mDuplicateMode == DuplicateMode.SKIP ? " (skipped)" : ""));
+        }
+
+        return result;
+    }
+
+    private boolean isCancelled() {
+        return mListener.isCancelled();
+    }
+
+    private void updateProgress(long workDone, long max) {
+        mListener.onProgress(workDone, max);
+    }
+
+    private static ExecutorService createExecutor(int threads) {
+        AtomicInteger count = new AtomicInteger();
+
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "ScanEngine-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private void loadScanCache() {
+        if (mScanCache == null) {
+            return;
+        }
+
+        try {
+            mScanCache.load();
+        } catch (IOException e) {
+            mListener.onMessage("Couldn't read scan cache, scanning every file: " + e + "\n\n");
+        }
+    }
+
+    private void saveScanCache(boolean complete) {
+        if (mScanCache == null) {
+            return;
+        }
+
+        try {
+            mScanCache.save(complete);
+        } catch (IOException e) {
+            mListener.onMessage("\n\nCouldn't write scan cache: " + e);
+        }
+    }
+
+    private void finishMetrics() {
+        mMetrics.endScan();
+        if (mDuplicateFinder != null) {
+            mMetrics.addBytesRead(mDuplicateFinder.getBytesHashed());
+        }
+
+        try {
+            mMetrics.writeSummary();
+        } catch (IOException e) {
+            mListener.onMessage("\n\nCouldn't write the metrics summary " + mMetrics.getSummaryFile() + ": " + e);
+        }
+    }
+
+    private int openReport() {
+        if (mReportPath == null) {
+            return 0;
+        }
+
+        try {
+            mReport = new ChangeReport(mReportPath, mReportFormat, mDateTimes);
+            mListener.onMessage("Writing changes to " + mReportPath + "\n\n");
+            return 0;
+        } catch (IOException e) {
+            mListener.onMessage("Couldn't create the change report " + mReportPath + ": " + e + "\n\n");
+            return 1;
+        }
+    }
+
+    private void closeRuns() {
+        if (mRuns == null) {
+            return;
+        }
+
+        try {
+            mRuns.close();
+        } catch (IOException e) {
+            // only the temp file, it's deleted when it's closed
+        } finally {
+            mRuns = null;
+        }
+    }
+
+    private int writeReport(MediaItem item) {
+        if (mReport == null) {
+            return 0;
+        }
+
+        long dateCreated = item.getDateCreated();
+        try {
+            mReport.write(item.getFilepath(), item.getDateSource(),
+                    dateCreated != DateTimes.NONE ? dateCreated : item.getLastModified(),
+                    item.hasNewDateTime() ? item.getDateTime() : DateTimes.NONE, displayFilename(item));
+            return 0;
+        } catch (IOException e) {
+            // one message is enough, stop writing it
+            mListener.onMessage("\n\nCouldn't write the change report " + mReportPath + ": " + e);
+            closeReport();
+            mReport = null;
+            return 1;
+        }
+    }
+
+    private int closeReport() {
+        if (mReport == null) {
+            return 0;
+        }
+
+        try {
+            mReport.close();
+            return 0;
+        } catch (IOException e) {
+            mListener.onMessage("\n\nCouldn't write the change report " + mReportPath + ": " + e);
+            return 1;
+        } finally {
+            mReport = null;
+        }
+    }
+
+    static boolean isMediaFile(Path path) {
+        String name = path.getFileName().toString().toLowerCase();
+        // bmp doesn't keep a date/time so there's no handler for it, but it still gets renamed
+        return name.endsWith(".bmp") || MetadataHandlers.hasExtension(name);
+    }
+
+    /*
+     * lists the directory once, reading each entry's attributes once. files in this directory are processed
+     * before descending into its sub directories, if it's recursive.
+     */
+    private int processDirectory(Path directory, boolean recursive) {
+        int result = 0;
+
+        ArrayList<MediaItem> items = new ArrayList<>();
+        ArrayList<DuplicateFinder.Candidate> candidates = new ArrayList<>();
+        ArrayList<Path> directories = new ArrayList<>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path entry : stream) {
+                if (isCancelled()) {
+                    return result;
+                }
+
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+                } catch (IOException e) {
+                    // broken links and the like, the old File based listing skipped these too
+                    continue;
+                }
+
+                if (attributes.isDirectory()) {
+                    if (recursive) {
+                        directories.add(entry);
+                    }
+                } else if (isMediaFile(entry)) {
+                    items.add(new MediaItem(entry.toFile(), attributes, mFilenameMatcher));
+                    // registered in listing order, so the first copy found is the one the others are duplicates of
+                    candidates.add(mDuplicateFinder == null ? null : mDuplicateFinder.add(entry.toFile(),
+                            attributes.size(), attributes.lastModifiedTime().toMillis()));
+                }
+            }
+        } catch (IOException | DirectoryIteratorException e) {
+            mListener.onMessage("\n\nNO FILES FOUND IN: " + directory);
+            result++;
+            return result;
+        }
+
+        mFileCount += items.size();
+        mDirectoriesVisited++;
+        mDirectoriesPending += directories.size();
+        updateProgressEstimate();
+
+        // process any media in the current directory
+        result += processFiles(items, candidates);
+
+        // process any directories in the current directory
+        for (Path d : directories) {
+            if (isCancelled()) {
+                return result;
+            }
+
+            mDirectoriesPending--;
+            result += processDirectory(d, true);
+        }
+
+        return result;
+    }
+
+    /*
+     * there's no separate counting pass, so the total is estimated from the files found so far plus the
+     * average files per directory for every directory that's been found but not listed yet.
+     */
+    private void updateProgressEstimate() {
+        long estimatedFiles = mFileCount + (long) mDirectoriesPending * mFileCount / mDirectoriesVisited;
+        mMaxProgress = (int) Math.min(Integer.MAX_VALUE, Math.max(estimatedFiles * PROGRESS_LOOPS, mProgress));
+        updateProgress(mProgress, mMaxProgress);
+    }
+
+    private int processFiles(ArrayList<MediaItem> scanned, ArrayList<DuplicateFinder.Candidate> candidates) {
+        int result = 0;
+
+        // the file each one is a duplicate of, filled in by the tasks
+        String[] originals = new String[scanned.size()];
+
+        // fan the date/time lookups (and hashing) for this directory out to the executor. the futures stay in
+        // listing order whatever order they're started in
+        ArrayList<Future<Boolean>> futures = new ArrayList<>(Collections.nCopies(scanned.size(), null));
+        for (int i : submitOrder(scanned)) {
+            MediaItem item = scanned.get(i);
+            DuplicateFinder.Candidate candidate = candidates.get(i);
+            int index = i;
+
+            futures.set(i, mExecutor.submit(() -> {
+                IoScheduler.Store store = mIoScheduler.getStore(Paths.get(item.getFilepath()));
+                long waited = store.acquire();
+                if (store.isLimited()) {
+                    mMetrics.latency(Metrics.IO_WAIT).record(waited);
+                }
+                try {
+                    boolean determined = item.determineDateTime(mDateTimes, mScanCache, mMetrics, store);
+                    if (determined && candidate != null) {
+                        File original = mDuplicateFinder.findOriginal(candidate);
+                        if (original != null) {
+                            originals[index] = original.getPath();
+                        }
+                    }
+                    return determined;
+                } finally {
+                    store.release();
+                }
+            }));
+        }
+
+        ArrayList<MediaItem> items = new ArrayList<>();
+        // collect in listing order, so output and sorting don't depend on which thread finished first.
+        // for all the media, if we can determine a date/time, add it to the list
+        for (int i = 0; i < futures.size(); i++) {
+            if (isCancelled()) {
+                cancelAll(futures);
+                return result;
+            }
+
+            MediaItem item = scanned.get(i);
+
+            try {
+                if (!futures.get(i).get()) {
+                    mListener.onMessage("\n" + item.getErrorMessage());
+                    result++;
+                } else if (originals[i] != null) {
+                    mListener.onMessage("\n\n" + item.getFilepath() + " DUPLICATE OF: " + originals[i] + "\n");
+                    mDuplicates++;
+                    if (mDuplicateMode == DuplicateMode.REPORT) {
+                        items.add(item);
+                    } else {
+                        mSkipped.add(skippedKey(item.getDirectory(), item.getFilename()));
+                    }
+                } else {
+                    items.add(item);
+                }
+            } catch (InterruptedException e) {
+                // the task was cancelled while waiting
+                cancelAll(futures);
+                return result;
+            } catch (ExecutionException e) {
+                mListener.onMessage("\n\n" + item.getFilepath() + " ERROR: " + e.getCause() + "\n");
+                mMetrics.error(e.getCause());
+                result++;
+            }
+
+            mMetrics.fileScanned();
+            mProgress++;
+            updateProgress(mProgress, mMaxProgress);
+        }
+
+        // sort the items (will sort by date/time, then name)
+        Collections.sort(items);
+
+        if (mStaggerDateTimes) {
+            staggerDateTimes(items);
+
+            // overlapping runs can leave equal date/times apart, they have to be next to each other to be numbered
+            if (mStaggerOverflow == StaggerOverflow.OVERLAP) {
+                Collections.sort(items);
+            }
+        }
+
+        if (mGlobalOrder) {
+            // numbered once every directory has been scanned, see mergeRuns()
+            return result + addRun(items);
+        }
+
+        // calculate new filenames for the ones with newDateTime
+        SequenceCounter counter = new SequenceCounter(mDateTimes);
+        for (MediaItem item : items) {
+            // if this returns true, then a file rename will occur
+            item.generateNewFilename(nextCount(counter, item, item.getDirectory()), mDateTimes);
+
+            mProgress++;
+            updateProgress(mProgress, mMaxProgress);
+        }
+
+        // loop through all media, if one will require a new date or filename, print it out
+        if (!items.isEmpty()) {
+            printHeader();
+        }
+        for (MediaItem item : items) {
+            if (isCancelled()) {
+                return result;
+            }
+
+            result += outputChange(item);
+
+            mProgress++;
+            updateProgress(mProgress, mMaxProgress);
+        }
+
+        return result;
+    }
+
+    /*
+     * listing order, or with IoScheduler ordering the order the files sit on disk, so a spinning disk reads the
+     * directory in one sweep instead of seeking back and forth
+     */
+    private Integer[] submitOrder(ArrayList<MediaItem> scanned) {
+        Integer[] order = new Integer[scanned.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+
+        if (mIoScheduler.isOrdered()) {
+            long[] diskOrders = new long[order.length];
+            for (int i = 0; i < order.length; i++) {
+                diskOrders[i] = IoScheduler.diskOrder(Paths.get(scanned.get(i).getFilepath()));
+            }
+            // stable, so files that can't be told apart stay in listing order
+            Arrays.sort(order, Comparator.comparingLong(i -> diskOrders[i]));
+        }
+
+        return order;
+    }
+
+    private void printHeader() {
+        mListener.onMessage("\n" + String.format("%50s  |  %19s  |  %s", "file", "new datetime", "new filename"));
+    }
+
+    // if the item will get a new date or filename, print it out and keep it
+    private int outputChange(MediaItem item) {
+        if (!item.hasNewDateTime() && !item.hasNewFilename()) {
+            return 0;
+        }
+
+        int result = 0;
+
+        // pad the filepath to at least 50 characters, left-aligned. 52 with the last 2 spaces
+        String formattedFilepath = String.format("%-50s  ", item.getFilepath());
+        // only show the last 52 characters
+        mListener.onMessage("\n" + formattedFilepath.substring(formattedFilepath.length() - 52));
+
+        if (item.hasNewDateTime()) {
+            mListener.onMessage("|  " + mDateTimes.formatDisplay(item.getDateTime()) + "  |");
+        } else {
+            // 19 spaces in the middle, for the same length as a date/time
+            mListener.onMessage("|                       |");
+        }
+
+        if (item.hasNewFilename()) {
+            mListener.onMessage("  " + displayFilename(item));
+        }
+
+        try {
+            mChangeSet.add(item);
+        } catch (IOException e) {
+            mListener.onMessage("\n\n" + item.getFilepath() + " ERROR: couldn't store the change: " + e);
+            result++;
+        }
+        result += writeReport(item);
+        mListener.onChange(item);
+
+        return result;
+    }
+
+    // the new filename, or the path under the scanned directory for a file that's being relocated
+    private String displayFilename(MediaItem item) {
+        if (item.getNewDirectory() == null) {
+            return item.getNewFilename();
+        }
+        return mFile.getAbsoluteFile().toPath().relativize(Paths.get(item.getNewFilepath())).toString();
+    }
+
+    // keeps a directory's sorted, staggered items until every directory has been scanned
+    private int addRun(ArrayList<MediaItem> items) {
+        int result = 0;
+
+        mRunStarts.add(mRuns.size());
+        for (MediaItem item : items) {
+            try {
+                mRuns.add(item);
+            } catch (IOException e) {
+                mListener.onMessage("\n\n" + item.getFilepath() + " ERROR: couldn't store the file: " + e);
+                result++;
+            }
+        }
+
+        return result;
+    }
+
+    /*
+     * k-way merge of the per directory runs, so files are numbered in date/time order across the whole tree. only
+     * the head of each run is held, the runs themselves stay in mRuns, which spills to disk when it's big.
+     */
+    private int mergeRuns() {
+        int result = 0;
+
+        PriorityQueue<Run> queue = new PriorityQueue<>(Math.max(1, mRunStarts.size()));
+        for (int i = 0; i < mRunStarts.size(); i++) {
+            int start = mRunStarts.get(i);
+            int end = i + 1 < mRunStarts.size() ? mRunStarts.get(i + 1) : mRuns.size();
+            if (start < end) {
+                queue.add(new Run(i, start, end));
+            }
+        }
+
+        if (!queue.isEmpty()) {
+            printHeader();
+        }
+
+        String root = mFile.getAbsolutePath();
+        StringBuilder directory = new StringBuilder(root.length() + 8);
+        SequenceCounter counter = new SequenceCounter(mDateTimes);
+
+        while (!queue.isEmpty()) {
+            if (isCancelled()) {
+                return result;
+            }
+
+            Run run = queue.poll();
+            MediaItem item = mRuns.get(run.mPosition);
+
+            String newDirectory = item.getDirectory();
+            if (mRelocate) {
+                // root/yyyy/MM
+                directory.setLength(0);
+                directory.append(root).append(File.separatorChar).append(mDateTimes.year(item.getDateTime()))
+                        .append(File.separatorChar);
+                newDirectory = DateTimes.appendTwoDigits(directory, mDateTimes.month(item.getDateTime())).toString();
+            }
+
+            item.generateNewFilename(nextCount(counter, item, newDirectory), mDateTimes);
+            if (mRelocate) {
+                item.setNewDirectory(newDirectory);
+            }
+
+            result += outputChange(item);
+
+            if (run.advance()) {
+                queue.add(run);
+            }
+
+            // numbering and output, the two loops processFiles does otherwise
+            mProgress += 2;
+            updateProgress(mProgress, mMaxProgress);
+        }
+
+        return result;
+    }
+
+    /*
+     * the next number for the item, passing over any that would give it the name of a skipped duplicate in the
+     * directory it ends up in. the final rename doesn't replace files, so it would fail there otherwise.
+     */
+    private int nextCount(SequenceCounter counter, MediaItem item, String directory) {
+        int count = counter.next(item.getDateTime());
+
+        while (!mSkipped.isEmpty() && mSkipped.contains(skippedKey(directory,
+                MediaItem.newFilename(item.getFilename(), item.getDateTime(), count, mDateTimes)))) {
+            count = counter.next(item.getDateTime());
+        }
+
+        return count;
+    }
+
+    // lower case, since names that differ only in case are the same file on some file systems
+    private static String skippedKey(String directory, String filename) {
+        return Paths.get(directory, filename).toString().toLowerCase(Locale.ROOT);
+    }
+
+    private static void cancelAll(ArrayList<Future<Boolean>> futures) {
+        for (Future<Boolean> future : futures) {
+            if (future != null) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /*
+     * recalculate new dates if date/times are the same for sequential files in the list. the list is already sorted
+     * by date/time then name, so each run of equal date/times is staggered in one pass, in name order.
+     */
+    private void staggerDateTimes(ArrayList<MediaItem> items) {
+        // the earliest a file can start without landing on a staggered one before it
+        long free = Long.MIN_VALUE;
+
+        int start = 0;
+        while (start < items.size()) {
+            long dateTime = items.get(start).getDateTime();
+
+            int end = start + 1;
+            while (end < items.size() && items.get(end).getDateTime() == dateTime) {
+                end++;
+            }
+
+            long first = dateTime;
+            if (dateTime < free && mStaggerOverflow == StaggerOverflow.PUSH) {
+                first = free;
+            }
+
+            for (int i = start; i < end; i++) {
+                long staggered = first + (i - start) * mStaggerMillis;
+                if (staggered != dateTime) {
+                    items.get(i).setDateTime(staggered);
+                }
+
+                mProgress++;
+                updateProgress(mProgress, mMaxProgress);
+            }
+
+            // only files that moved can be landed on, real date/times a few millis apart are left as they are
+            free = end - start > 1 || first != dateTime ? first + (end - start) * mStaggerMillis : Long.MIN_VALUE;
+            start = end;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // SequenceCounter
+    // ------------------------------------------------------------------------
+
+    // numbers files that land on the same local second, which is all a filename shows, in the order they're given
+    private static class SequenceCounter {
+
+        private final DateTimes mDateTimes;
+
+        private int mCount = 1;
+
+        private long mSecond = Long.MIN_VALUE;
+
+        SequenceCounter(DateTimes dateTimes) {
+            mDateTimes = dateTimes;
+        }
+
+        int next(long dateTime) {
+            long second = mDateTimes.localSecond(dateTime);
+
+            if (second == mSecond) {
+                mCount++;
+            } else {
+                mSecond = second;
+                mCount = 1;
+            }
+
+            return mCount;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Run
+    // ------------------------------------------------------------------------
+
+    // one directory's items in mRuns, ordered by their head the same way MediaItem sorts, then by directory
+    private class Run implements Comparable<Run> {
+
+        private final int mOrder;
+
+        private final int mEnd;
+
+        private int mPosition;
+
+        private long mDateTime;
+
+        private String mName;
+
+        Run(int order, int start, int end) {
+            mOrder = order;
+            mPosition = start;
+            mEnd = end;
+            readHead();
+        }
+
+        boolean advance() {
+            if (++mPosition >= mEnd) {
+                return false;
+            }
+
+            readHead();
+            return true;
+        }
+
+        private void readHead() {
+            mDateTime = mRuns.getDateTime(mPosition);
+            mName = mRuns.getName(mPosition);
+        }
+
+        @Override
+        public int compareTo(Run run) {
+            int distance = Long.compare(mDateTime, run.mDateTime);
+            if (distance == 0) {
+                distance = mName.compareToIgnoreCase(run.mName);
+            }
+            if (distance == 0) {
+                distance = Integer.compare(mOrder, run.mOrder);
+            }
+            return distance;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.thirtyonetensoftware.renamemediatool;
+
+import com.thirtyonetensoftware.renamemediatool.support.ChangeReport;
+import com.thirtyonetensoftware.renamemediatool.support.IoScheduler;
+
+import java.nio.file.Path;
+import java.time.ZoneId;
+
+public class ScanOptions {
+
+    // ------------------------------------------------------------------------
+    // Class Variables
+    // ------------------------------------------------------------------------
+
+    // scanning is mostly waiting on disk, so by default use more threads than cores
+    public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors() * 2;
+
+    // only 1 second due to issue #1
+    public static final int DEFAULT_STAGGER_SECONDS = 1;
+
+    // ------------------------------------------------------------------------
+    // Instance Variables
+    // ------------------------------------------------------------------------
+
+    private boolean mStaggerDateTimes = false;
+
+    private int mStaggerSeconds = DEFAULT_STAGGER_SECONDS;
+
+    private StaggerOverflow mStaggerOverflow = StaggerOverflow.PUSH;
+
+    // number files across the whole tree instead of per directory
+    private boolean mGlobalOrder = false;
+
+    // move files into yyyy/MM directories under the scanned directory, needs global order
+    private boolean mRelocate = false;
+
+    private DuplicateMode mDuplicateMode = DuplicateMode.OFF;
+
+    private int mThreads = DEFAULT_THREADS;
+
+    // per store limits, shared by the scan and the commit after it. nothing's limited by default
+    private IoScheduler mIoScheduler = new IoScheduler();
+
+    private boolean mUseCache = true;
+
+    // null for no report
+    private Path mReport;
+
+    private ChangeReport.Format mReportFormat = ChangeReport.Format.CSV;
+
+    // what a run's ChangeSets are made with, the scan reads in the zone of the ChangeSet it's given
+    private ZoneId mZone = ZoneId.systemDefault();
+
+    // ------------------------------------------------------------------------
+    // Public Methods
+    // ------------------------------------------------------------------------
+
+    public boolean isStaggerDateTimes() {
+        return mStaggerDateTimes;
+    }
+
+    public void setStaggerDateTimes(boolean staggerDateTimes) {
+        mStaggerDateTimes = staggerDateTimes;
+    }
+
+    public int getStaggerSeconds() {
+        return mStaggerSeconds;
+    }
+
+    public void setStaggerSeconds(int staggerSeconds) {
+        mStaggerSeconds = Math.max(1, staggerSeconds);
+    }
+
+    public StaggerOverflow getStaggerOverflow() {
+        return mStaggerOverflow;
+    }
+
+    public void setStaggerOverflow(StaggerOverflow staggerOverflow) {
+        mStaggerOverflow = staggerOverflow;
+    }
+
+    public boolean isGlobalOrder() {
+        return mGlobalOrder || mRelocate;
+    }
+
+    public void setGlobalOrder(boolean globalOrder) {
+        mGlobalOrder = globalOrder;
+    }
+
+    public boolean isRelocate() {
+        return mRelocate;
+    }
+
+    public void setRelocate(boolean relocate) {
+        mRelocate = relocate;
+    }
+
+    public DuplicateMode getDuplicateMode() {
+        return mDuplicateMode;
+    }
+
+    public void setDuplicateMode(DuplicateMode duplicateMode) {
+        mDuplicateMode = duplicateMode;
+    }
+
+    public int getThreads() {
+        return mThreads;
+    }
+
+    public void setThreads(int threads) {
+        mThreads = Math.max(1, threads);
+    }
+
+    public IoScheduler getIoScheduler() {
+        return mIoScheduler;
+    }
+
+    public void setIoScheduler(IoScheduler ioScheduler) {
+        mIoScheduler = ioScheduler;
+    }
+
+    public boolean isUseCache() {
+        return mUseCache;
+    }
+
+    public void setUseCache(boolean useCache) {
+        mUseCache = useCache;
+    }
+
+    public Path getReport() {
+        return mReport;
+    }
+
+    public ChangeReport.Format getReportFormat() {
+        return mReportFormat;
+    }
+
+    public void setReport(Path report, ChangeReport.Format format) {
+        mReport = report;
+        mReportFormat = format;
+    }
+
+    public ZoneId getZone() {
+        return mZone;
+    }
+
+    public void setZone(ZoneId zone) {
+        mZone = zone;
+    }
+}
@@ -0,0 +1,9 @@
+package com.thirtyonetensoftware.renamemediatool;
+
+// what to do when staggering a run of same date/time files reaches the next file's real date/time
+public enum StaggerOverflow {
+    // move the later files on too, so every file ends up with its own date/time
+    PUSH,
+    // leave the later files alone, even if a staggered file ends up with the same date/time
+    OVERLAP
+}
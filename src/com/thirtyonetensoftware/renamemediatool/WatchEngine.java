@@ -0,0 +1,302 @@
+package com.thirtyonetensoftware.renamemediatool;
+
+import com.thirtyonetensoftware.renamemediatool.support.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * keeps a directory tree renamed as files arrive in it. a WatchService reports which directories changed, and once a
+ * directory has been quiet for a while it's scanned and committed on its own, a few directories at a time. the whole
+ * directory is scanned, not just the new files, so files already there keep the numbers a full scan would give them;
+ * with the scan cache the files that were already there cost a stat each. the renames a commit makes are changes too,
+ * so a directory gets one more scan after it's committed, which finds nothing to do.
+ *
+ * a WatchService can drop events (overflow) or run out of watches on a big tree, so the whole tree is also scanned
+ * at start, every so often after that, and straight away after an overflow.
+ *
+ * numbering across directories (ScanOptions' global order and relocate) needs the whole tree, so it isn't used here.
+ * nothing here touches JavaFX.
+ */
+public class WatchEngine {
+
+    // ------------------------------------------------------------------------
+    // Class Variables
+    // ------------------------------------------------------------------------
+
+    public static final int DEFAULT_QUIET_SECONDS = 5;
+
+    public static final int DEFAULT_RECONCILE_MINUTES = 60;
+
+    public static final int DEFAULT_BATCH_DIRECTORIES = 8;
+
+    // longest wait for an event, so stop() is noticed
+    private static final long POLL_MILLIS = 1000;
+
+    // ------------------------------------------------------------------------
+    // Instance Variables
+    // ------------------------------------------------------------------------
+
+    private final File mFile;
+
+    private final ScanOptions mOptions;
+
+    private final boolean mDryRun;
+
+    private final EngineListener mListener;
+
+    private final long mQuietMillis;
+
+    private final long mReconcileMillis;
+
+    private final int mBatchDirectories;
+
+    private WatchService mWatchService;
+
+    private final Map<WatchKey, Path> mKeys = new HashMap<>();
+
+    // directories that changed, oldest first, and when they last changed
+    private final LinkedHashMap<Path, Long> mPending = new LinkedHashMap<>();
+
+    private long mNextReconcile = 0;
+
+    private volatile boolean mStopped = false;
+
+    private int mBatches = 0;
+
+    private int mChanges = 0;
+
+    // ------------------------------------------------------------------------
+    // Constructor
+    // ------------------------------------------------------------------------
+
+    /**
+     * @param quietSeconds     how long a directory has to go without changes before it's scanned
+     * @param reconcileMinutes how often the whole tree is scanned
+     * @param batchDirectories most directories scanned and committed together
+     */
+    public WatchEngine(File file, ScanOptions options, boolean dryRun, int quietSeconds, int reconcileMinutes,
+                       int batchDirectories, EngineListener listener) {
+        mFile = file;
+        mOptions = options;
+        mDryRun = dryRun;
+        mQuietMillis = Math.max(0, quietSeconds) * 1000L;
+        mReconcileMillis = Math.max(1, reconcileMinutes) * 60_000L;
+        mBatchDirectories = Math.max(1, batchDirectories);
+        mListener = listener;
+    }
+
+    // ------------------------------------------------------------------------
+    // Public Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * watches until stop() is called. a batch that's been started is always finished first.
+     *
+     * @return the number of issues found while watching
+     */
+    public int run() {
+        int result = 0;
+
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            mWatchService = watchService;
+            register(mFile.toPath(), false);
+
+            mListener.onMessage("WATCHING: " + mFile + "\n\n");
+
+            while (!mStopped) {
+                long now = System.currentTimeMillis();
+
+                if (now >= mNextReconcile) {
+                    result += reconcile();
+                    continue;
+                }
+
+                ArrayList<Path> ready = takeReady(now);
+                if (!ready.isEmpty()) {
+                    result += processBatch(ready, false);
+                    continue;
+                }
+
+                WatchKey key = watchService.poll(Math.max(1, Math.min(POLL_MILLIS, nextWakeUp() - now)),
+                        TimeUnit.MILLISECONDS);
+                while (key != null) {
+                    handle(key);
+                    key = watchService.poll();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // stopped
+        } catch (IOException e) {
+            mListener.onMessage("\n\nCouldn't watch " + mFile + ": " + e);
+            result++;
+        } finally {
+            mWatchService = null;
+            mKeys.clear();
+        }
+
+        mListener.onMessage("\n\nSTOPPED WATCHING: " + mBatches + " batches, " + mChanges + " changes");
+
+        return result;
+    }
+
+    public void stop() {
+        mStopped = true;
+    }
+
+    // ------------------------------------------------------------------------
+    // Private Methods
+    // ------------------------------------------------------------------------
+
+    /*
+     * watches the directory and everything under it. directories that turn up later are marked pending as well, their
+     * files were moved in with them and there won't be an event for each one.
+     */
+    private void register(Path start, boolean pending) {
+        long now = System.currentTimeMillis();
+
+        try {
+            Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    mKeys.put(dir.register(mWatchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), dir);
+                    if (pending) {
+                        mPending.put(dir, now);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            // usually out of watches. the reconciliation scans still pick up whatever isn't watched
+            mListener.onMessage("\n\nCouldn't watch everything under " + start + ", relying on full scans: " + e);
+        }
+    }
+
+    private void handle(WatchKey key) {
+        Path directory = mKeys.get(key);
+        long now = System.currentTimeMillis();
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+                // events were lost, only a full scan can tell what changed
+                mNextReconcile = 0;
+                continue;
+            }
+
+            Path child = directory.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                    && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                register(child, true);
+            } else if (ScanEngine.isMediaFile(child)) {
+                // moved to the back, so the order is by last change
+                mPending.remove(directory);
+                mPending.put(directory, now);
+            }
+        }
+
+        if (!key.reset()) {
+            // the directory's gone
+            mKeys.remove(key);
+            mPending.remove(directory);
+        }
+    }
+
+    // up to a batch of directories that have been quiet long enough, in the order they went quiet
+    private ArrayList<Path> takeReady(long now) {
+        ArrayList<Path> ready = new ArrayList<>();
+
+        Iterator<Map.Entry<Path, Long>> iterator = mPending.entrySet().iterator();
+        while (iterator.hasNext() && ready.size() < mBatchDirectories) {
+            Map.Entry<Path, Long> entry = iterator.next();
+            if (now - entry.getValue() < mQuietMillis) {
+                // everything after this changed later
+                break;
+            }
+
+            iterator.remove();
+            if (Files.isDirectory(entry.getKey())) {
+                ready.add(entry.getKey());
+            }
+        }
+
+        return ready;
+    }
+
+    private long nextWakeUp() {
+        long wakeUp = mNextReconcile;
+        if (!mPending.isEmpty()) {
+            wakeUp = Math.min(wakeUp, mPending.values().iterator().next() + mQuietMillis);
+        }
+        return wakeUp;
+    }
+
+    private int reconcile() {
+        long start = System.currentTimeMillis();
+        mNextReconcile = start + mReconcileMillis;
+
+        int result = processBatch(null, true);
+
+        // anything that changed before the scan started has been seen by it
+        mPending.values().removeIf(changed -> changed < start);
+
+        return result;
+    }
+
+    /*
+     * scans the directories, or the whole tree, and commits what it found. like the command line, nothing is written
+     * if the scan had issues; the directories are looked at again on their next change or the next full scan.
+     */
+    private int processBatch(ArrayList<Path> directories, boolean everything) {
+        mBatches++;
+        mListener.onMessage(everything ? "\n\nFULL SCAN\n\n" : "\n\nNEW FILES IN: " + directories + "\n\n");
+
+        ChangeSet changeSet = new ChangeSet(mOptions.getZone());
+        try {
+            ScanEngine scanner = new ScanEngine(mFile, mOptions, changeSet, mListener);
+            int result = everything ? scanner.run() : scanner.run(directories);
+
+            if (result > 0) {
+                mListener.onMessage("\n\n" + result + " issues found. Nothing was written.");
+            } else if (!mDryRun && !changeSet.isEmpty()) {
+                mListener.onMessage("\n\n");
+                result += new CommitEngine(changeSet, mOptions.getThreads(), mOptions.getIoScheduler(),
+                        new Metrics(null), mListener).run();
+                mChanges += changeSet.size();
+            }
+
+            return result;
+        } finally {
+            try {
+                changeSet.close();
+            } catch (IOException e) {
+                // only the spill file, and that's a temp file
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.thirtyonetensoftware.renamemediatool.metadatahandler;
+
+import com.thirtyonetensoftware.renamemediatool.DateSource;
+import com.thirtyonetensoftware.renamemediatool.support.DateTimes;
+import com.thirtyonetensoftware.renamemediatool.support.ExifDateReader;
+import com.thirtyonetensoftware.renamemediatool.support.HeifDateReader;
+import com.thirtyonetensoftware.renamemediatool.support.MetadataException;
+import com.thirtyonetensoftware.renamemediatool.support.MetadataHandler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+ * the EXIF item of a heic / heif. read only
+ */
+@SuppressWarnings("unused")
+public class HeifHandler extends MetadataHandler {
+
+    @Override
+    public int getHeaderSize() {
+        return 12;
+    }
+
+    @Override
+    public boolean matches(ByteBuffer header) {
+        return HeifDateReader.isHeif(header);
+    }
+
+    @Override
+    public String[] getExtensions() {
+        return new String[]{".heic", ".heif"};
+    }
+
+    @Override
+    public DateSource getDateSource() {
+        return DateSource.EXIF;
+    }
+
+    @Override
+    public long readDateTime(File file, FileChannel channel, DateTimes dateTimes)
+            throws IOException, MetadataException {
+        String value = HeifDateReader.readDateTime(channel);
+        return value == null ? DateTimes.NONE : ExifDateReader.parseDateTime(value, dateTimes);
+    }
+}
@@ -0,0 +1,202 @@
+package com.thirtyonetensoftware.renamemediatool.metadatahandler;
+
+import com.thirtyonetensoftware.renamemediatool.DateSource;
+import com.thirtyonetensoftware.renamemediatool.support.DateTimes;
+import com.thirtyonetensoftware.renamemediatool.support.ExifDateReader;
+import com.thirtyonetensoftware.renamemediatool.support.ExifDateWriter;
+import com.thirtyonetensoftware.renamemediatool.support.MetadataException;
+import com.thirtyonetensoftware.renamemediatool.support.MetadataHandler;
+import org.apache.sanselan.ImageReadException;
+import org.apache.sanselan.ImageWriteException;
+import org.apache.sanselan.Sanselan;
+import org.apache.sanselan.common.IImageMetadata;
+import org.apache.sanselan.formats.jpeg.JpegImageMetadata;
+import org.apache.sanselan.formats.jpeg.exifRewrite.ExifRewriter;
+import org.apache.sanselan.formats.tiff.TiffField;
+import org.apache.sanselan.formats.tiff.TiffImageMetadata;
+import org.apache.sanselan.formats.tiff.constants.ExifTagConstants;
+import org.apache.sanselan.formats.tiff.constants.TiffConstants;
+import org.apache.sanselan.formats.tiff.write.TiffOutputDirectory;
+import org.apache.sanselan.formats.tiff.write.TiffOutputField;
+import org.apache.sanselan.formats.tiff.write.TiffOutputSet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+ * EXIF DateTimeOriginal / CreateDate, at their OffsetTime when there is one. read and patched directly where possible,
+ * Sanselan handles the rest.
+ */
+@SuppressWarnings("unused")
+public class JpegHandler extends MetadataHandler {
+
+    // ------------------------------------------------------------------------
+    // MetadataHandler Methods
+    // ------------------------------------------------------------------------
+
+    @Override
+    public int getHeaderSize() {
+        return 3;
+    }
+
+    @Override
+    public boolean matches(ByteBuffer header) {
+        return header.limit() >= 3 &&
+                (header.get(0) & 0xFF) == 0xFF && (header.get(1) & 0xFF) == 0xD8 && (header.get(2) & 0xFF) == 0xFF;
+    }
+
+    @Override
+    public String[] getExtensions() {
+        return new String[]{".jpg", ".jpeg"};
+    }
+
+    @Override
+    public DateSource getDateSource() {
+        return DateSource.EXIF;
+    }
+
+    @Override
+    public long readDateTime(File file, FileChannel channel, DateTimes dateTimes)
+            throws IOException, MetadataException {
+        String value;
+
+        try {
+            value = ExifDateReader.readDateTime(channel);
+        } catch (ExifDateReader.MalformedExifException e) {
+            // let Sanselan have a go at anything the fast reader doesn't understand
+            value = readExifDateTime(file);
+        }
+
+        return value == null ? DateTimes.NONE : ExifDateReader.parseDateTime(value, dateTimes);
+    }
+
+    @Override
+    public boolean canWriteDateTime() {
+        return true;
+    }
+
+    @Override
+    public boolean writeDateTime(File file, long dateTime, DateTimes dateTimes)
+            throws IOException, MetadataException {
+        // if both tags are already there, the new value fits over the old one. otherwise rewrite the file
+        if (!ExifDateWriter.patchDateTime(file, dateTime, dateTimes)) {
+            try {
+                rewriteExifDateTime(file, dateTime, dateTimes);
+            } catch (ImageReadException | ImageWriteException e) {
+                throw new MetadataException(e.getMessage(), e);
+            }
+        }
+
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    // Private Methods
+    // ------------------------------------------------------------------------
+
+    private static String readExifDateTime(File file) throws IOException, MetadataException {
+        TiffField dateTimeValue = null;
+
+        try {
+            // attempt to read the EXIF data
+            IImageMetadata metadata = Sanselan.getMetadata(file);
+            if (metadata instanceof JpegImageMetadata) {
+                JpegImageMetadata jpegMetadata = (JpegImageMetadata) metadata;
+                // read the date/time tag out
+                dateTimeValue = jpegMetadata.findEXIFValue(ExifTagConstants.EXIF_TAG_DATE_TIME_ORIGINAL);
+
+                boolean original = dateTimeValue != null;
+                if (dateTimeValue == null) {
+                    dateTimeValue = jpegMetadata.findEXIFValue(ExifTagConstants.EXIF_TAG_CREATE_DATE);
+                }
+
+                if (dateTimeValue != null) {
+                    String value = dateTimeValue.getStringValue().trim();
+                    int offset = findOffset(jpegMetadata.getExif(), original);
+                    return offset == DateTimes.NO_OFFSET ? value :
+                            DateTimes.appendOffset(new StringBuilder(value), offset).toString();
+                }
+            }
+
+            return null;
+        } catch (ImageReadException e) {
+            throw new MetadataException(e.getMessage(), e);
+        }
+    }
+
+    // Sanselan doesn't know the offset tags, so they're looked for by number
+    private static int findOffset(TiffImageMetadata exif, boolean original) throws ImageReadException {
+        if (exif == null) {
+            return DateTimes.NO_OFFSET;
+        }
+
+        for (int tag : ExifDateReader.offsetTags(original)) {
+            for (Object item : exif.getAllFields()) {
+                TiffField field = (TiffField) item;
+                if (field.tag == tag && field.getValue() instanceof String) {
+                    int offset = DateTimes.parseOffset(((String) field.getValue()).trim(), 0);
+                    if (offset != DateTimes.NO_OFFSET) {
+                        return offset;
+                    }
+                }
+            }
+        }
+
+        return DateTimes.NO_OFFSET;
+    }
+
+    private static void rewriteExifDateTime(File file, long dateTime, DateTimes dateTimes)
+            throws IOException, ImageReadException, ImageWriteException {
+        TiffOutputSet outputSet = new TiffOutputSet();
+        int offset = DateTimes.NO_OFFSET;
+
+        // attempt to read the EXIF data
+        IImageMetadata metadata = Sanselan.getMetadata(file);
+        if (metadata instanceof JpegImageMetadata) {
+            JpegImageMetadata jpegMetadata = (JpegImageMetadata) metadata;
+
+            TiffImageMetadata exif = jpegMetadata.getExif();
+            if (exif != null) {
+                outputSet = exif.getOutputSet();
+                offset = findOffset(exif, true);
+            }
+        }
+
+        String newDateTimeValue = ExifDateWriter.formatDateTime(dateTime, offset, dateTimes);
+
+        TiffOutputField new_date_time_orig_field = new TiffOutputField(TiffConstants.EXIF_TAG_DATE_TIME_ORIGINAL,
+                TiffConstants.FIELD_TYPE_ASCII,
+                newDateTimeValue.length(),
+                newDateTimeValue.getBytes());
+        TiffOutputField new_create_date_field = new TiffOutputField(TiffConstants.EXIF_TAG_CREATE_DATE,
+                TiffConstants.FIELD_TYPE_ASCII,
+                newDateTimeValue.length(),
+                newDateTimeValue.getBytes());
+
+        TiffOutputDirectory exif = outputSet.getOrCreateExifDirectory();
+        exif.removeField(ExifTagConstants.EXIF_TAG_DATE_TIME_ORIGINAL);
+        exif.removeField(ExifTagConstants.EXIF_TAG_CREATE_DATE);
+        exif.add(new_date_time_orig_field);
+        exif.add(new_create_date_field);
+
+        saveExifToJpeg(file, outputSet);
+    }
+
+    private static void saveExifToJpeg(File jpegFile, TiffOutputSet exif)
+            throws IOException, ImageWriteException, ImageReadException {
+        String tempFileName = jpegFile.getAbsolutePath() + ".tmp";
+        File tempFile = new File(tempFileName);
+
+        BufferedOutputStream tempStream = new BufferedOutputStream(new FileOutputStream(tempFile));
+        new ExifRewriter().updateExifMetadataLossless(jpegFile, tempStream, exif);
+        tempStream.close();
+
+        if (jpegFile.delete()) {
+            tempFile.renameTo(jpegFile);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.thirtyonetensoftware.renamemediatool.metadatahandler;
+
+import com.thirtyonetensoftware.renamemediatool.DateSource;
+import com.thirtyonetensoftware.renamemediatool.support.DateTimes;
+import com.thirtyonetensoftware.renamemediatool.support.MetadataException;
+import com.thirtyonetensoftware.renamemediatool.support.MetadataHandler;
+import com.thirtyonetensoftware.renamemediatool.support.PngDateReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+ * eXIf chunk, else tIME chunk. read only
+ */
+@SuppressWarnings("unused")
+public class PngHandler extends MetadataHandler {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    @Override
+    public int getHeaderSize() {
+        return SIGNATURE.length;
+    }
+
+    @Override
+    public boolean matches(ByteBuffer header) {
+        if (header.limit() < SIGNATURE.length) {
+            return false;
+        }
+
+        for (int i = 0; i < SIGNATURE.length; i++) {
+            if (header.get(i) != SIGNATURE[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public String[] getExtensions() {
+        return new String[]{".png"};
+    }
+
+    @Override
+    public DateSource getDateSource() {
+        return DateSource.EXIF;
+    }
+
+    @Override
+    public long readDateTime(File file, FileChannel channel, DateTimes dateTimes)
+            throws IOException, MetadataException {
+        return PngDateReader.readDateTime(channel, dateTimes);
+    }
+}
@@ -0,0 +1,64 @@
+package com.thirtyonetensoftware.renamemediatool.metadatahandler;
+
+import com.thirtyonetensoftware.renamemediatool.DateSource;
+import com.thirtyonetensoftware.renamemediatool.support.DateTimes;
+import com.thirtyonetensoftware.renamemediatool.support.HeifDateReader;
+import com.thirtyonetensoftware.renamemediatool.support.MetadataHandler;
+import com.thirtyonetensoftware.renamemediatool.support.VideoDateReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * mp4 / mov creation time. read only
+ */
+@SuppressWarnings("unused")
+public class VideoHandler extends MetadataHandler {
+
+    // an mp4 starts with ftyp, older movs can start with any of the others
+    private static final String[] FIRST_BOXES = {"ftyp", "moov", "mdat", "wide", "free", "skip", "pnot"};
+
+    @Override
+    public int getHeaderSize() {
+        return 12;
+    }
+
+    @Override
+    public boolean matches(ByteBuffer header) {
+        if (header.limit() < 8 || HeifDateReader.isHeif(header)) {
+            return false;
+        }
+
+        byte[] type = new byte[4];
+        for (int i = 0; i < type.length; i++) {
+            type[i] = header.get(4 + i);
+        }
+
+        String first = new String(type, StandardCharsets.ISO_8859_1);
+        for (String box : FIRST_BOXES) {
+            if (box.equals(first)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public String[] getExtensions() {
+        return new String[]{".mp4", ".mov"};
+    }
+
+    @Override
+    public DateSource getDateSource() {
+        return DateSource.VIDEO;
+    }
+
+    @Override
+    public long readDateTime(File file, FileChannel channel, DateTimes dateTimes) throws IOException {
+        return VideoDateReader.readDateTime(channel, dateTimes);
+    }
+}
@@ -0,0 +1,206 @@
+package com.thirtyonetensoftware.renamemediatool.support;
+
+import com.thirtyonetensoftware.renamemediatool.DateSource;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * writes every planned change to a file as the scan finds it, one row per file, so other tools can diff and audit a
+ * run without reading the padded text output. rows go through one buffer straight to the file channel.
+ *
+ * columns: path, source, oldDateTime, newDateTime, newFilename. oldDateTime is the file's creationTime when it was
+ * scanned (lastModified if the file system doesn't keep one), newDateTime and newFilename are empty when they don't
+ * change. not thread safe, the scan writes it from one thread.
+ */
+public class ChangeReport implements Closeable {
+
+    // ------------------------------------------------------------------------
+    // Class Variables
+    // ------------------------------------------------------------------------
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String[] COLUMNS = {"path", "source", "oldDateTime", "newDateTime", "newFilename"};
+
+    public enum Format {
+        CSV,
+        JSONL;
+
+        // .jsonl and .json are JSONL, anything else is CSV
+        public static Format forPath(Path path) {
+            String name = path.getFileName().toString().toLowerCase();
+            return name.endsWith(".jsonl") || name.endsWith(".json") ? JSONL : CSV;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Instance Variables
+    // ------------------------------------------------------------------------
+
+    private final Path mPath;
+
+    private final Format mFormat;
+
+    // date/times are written in the scan's zone
+    private final DateTimes mDateTimes;
+
+    private final FileChannel mChannel;
+
+    private final ByteBuffer mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private final StringBuilder mRow = new StringBuilder();
+
+    private int mRows = 0;
+
+    // ------------------------------------------------------------------------
+    // Constructors
+    // ------------------------------------------------------------------------
+
+    public ChangeReport(Path path, Format format, DateTimes dateTimes) throws IOException {
+        mPath = path;
+        mFormat = format;
+        mDateTimes = dateTimes;
+
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+
+        mChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+
+        if (mFormat == Format.CSV) {
+            for (int i = 0; i < COLUMNS.length; i++) {
+                mRow.append(i == 0 ? "" : ",").append(COLUMNS[i]);
+            }
+            writeRow();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Public Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * @param newDateTime DateTimes.NONE if the date/time doesn't change
+     * @param newFilename null if the file keeps its name
+     */
+    public void write(String path, DateSource source, long oldDateTime, long newDateTime, String newFilename)
+            throws IOException {
+        String[] values = {path, source.name(), format(oldDateTime), format(newDateTime), newFilename};
+
+        if (mFormat == Format.CSV) {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    mRow.append(',');
+                }
+                appendCsv(values[i]);
+            }
+        } else {
+            mRow.append('{');
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    mRow.append(',');
+                }
+                Json.appendString(mRow, COLUMNS[i]);
+                mRow.append(':');
+                if (values[i] == null) {
+                    mRow.append("null");
+                } else {
+                    Json.appendString(mRow, values[i]);
+                }
+            }
+            mRow.append('}');
+        }
+
+        writeRow();
+        mRows++;
+    }
+
+    public Path getPath() {
+        return mPath;
+    }
+
+    public int getRows() {
+        return mRows;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            mChannel.close();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Private Methods
+    // ------------------------------------------------------------------------
+
+    private String format(long dateTime) {
+        return dateTime == DateTimes.NONE ? null : mDateTimes.formatIso(dateTime);
+    }
+
+    private void writeRow() throws IOException {
+        byte[] bytes = mRow.append('\n').toString().getBytes(StandardCharsets.UTF_8);
+        mRow.setLength(0);
+
+        if (bytes.length > mBuffer.remaining()) {
+            flush();
+        }
+
+        if (bytes.length > mBuffer.capacity()) {
+            // bigger than the buffer, no point copying it
+            write(ByteBuffer.wrap(bytes));
+        } else {
+            mBuffer.put(bytes);
+        }
+    }
+
+    private void flush() throws IOException {
+        mBuffer.flip();
+        write(mBuffer);
+        mBuffer.clear();
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            mChannel.write(buffer);
+        }
+    }
+
+    private void appendCsv(String value) {
+        if (value == null) {
+            return;
+        }
+
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+
+        if (!quote) {
+            mRow.append(value);
+            return;
+        }
+
+        mRow.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                mRow.append('"');
+            }
+            mRow.append(c);
+        }
+        mRow.append('"');
+    }
+}
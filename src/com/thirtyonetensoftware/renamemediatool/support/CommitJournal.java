@@ -0,0 +1,236 @@
+package com.thirtyonetensoftware.renamemediatool.support;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/*
+ * write-ahead log of a commit, so a run that dies part way can be finished or undone later. one tab separated record
+ * per line, written before the change it describes:
+ *
+ *   DATE    path  oldLastModified  oldCreationTime  newDateTime
+ *   RENAME  oldPath  tempPath  newPath
+ *   FINAL   directory      every file in the directory is on its temp name, final renames are starting
+ *   DONE    directory      the directory's renames are finished
+ *   COMPLETE               the whole commit is finished
+ *
+ * records are buffered and only forced to disk by sync(). sync() covers everything appended so far, by any thread,
+ * so threads that sync at the same time share one fsync.
+ *
+ * journals live in ~/.renamemediatool/journal, a finished commit deletes its own.
+ */
+public class CommitJournal implements Closeable {
+
+    // ------------------------------------------------------------------------
+    // Class Variables
+    // ------------------------------------------------------------------------
+
+    public static final Path DIRECTORY = Paths.get(System.getProperty("user.home"), ".renamemediatool", "journal");
+
+    public static final String DATE = "DATE";
+    public static final String RENAME = "RENAME";
+    public static final String FINAL = "FINAL";
+    public static final String DONE = "DONE";
+    public static final String COMPLETE = "COMPLETE";
+
+    private static final String EXTENSION = ".journal";
+
+    // ------------------------------------------------------------------------
+    // Instance Variables
+    // ------------------------------------------------------------------------
+
+    private final Path mPath;
+
+    private final FileChannel mChannel;
+
+    private final BufferedWriter mWriter;
+
+    private final Object mSyncLock = new Object();
+
+    // sequence numbers of the last record appended, and the last one known to be on disk
+    private long mWritten = 0;
+
+    private long mSynced = 0;
+
+    // null if nobody's measuring
+    private volatile LatencyHistogram mForceLatency;
+
+    // ------------------------------------------------------------------------
+    // Constructors
+    // ------------------------------------------------------------------------
+
+    private CommitJournal(Path path) throws IOException {
+        mPath = path;
+        mChannel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        mWriter = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(mChannel),
+                StandardCharsets.UTF_8));
+    }
+
+    public static CommitJournal create() throws IOException {
+        Files.createDirectories(DIRECTORY);
+
+        String name = "commit-" + DateTimes.STAMP_FORMAT.format(LocalDateTime.now()) + "-" +
+                UUID.randomUUID().toString().substring(0, 8) + EXTENSION;
+        return new CommitJournal(DIRECTORY.resolve(name));
+    }
+
+    // ------------------------------------------------------------------------
+    // Public Methods
+    // ------------------------------------------------------------------------
+
+    public Path getPath() {
+        return mPath;
+    }
+
+    // every fsync is timed into the histogram
+    public void setForceLatency(LatencyHistogram forceLatency) {
+        mForceLatency = forceLatency;
+    }
+
+    /**
+     * @return the record's sequence number, to pass to sync()
+     */
+    public synchronized long append(String... fields) throws IOException {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                mWriter.write('\t');
+            }
+            mWriter.write(escape(fields[i]));
+        }
+        mWriter.write('\n');
+
+        return ++mWritten;
+    }
+
+    /**
+     * makes sure the record with this sequence number, and everything before it, is on disk
+     */
+    public void sync(long sequence) throws IOException {
+        synchronized (mSyncLock) {
+            if (mSynced >= sequence) {
+                // someone else's sync already covered it
+                return;
+            }
+
+            long written;
+            synchronized (this) {
+                mWriter.flush();
+                written = mWritten;
+            }
+
+            // other threads can keep appending while this waits on the disk
+            long start = System.nanoTime();
+            mChannel.force(false);
+            if (mForceLatency != null) {
+                mForceLatency.record(System.nanoTime() - start);
+            }
+            mSynced = written;
+        }
+    }
+
+    /**
+     * marks the commit finished and deletes the journal
+     */
+    public void complete() throws IOException {
+        sync(append(COMPLETE));
+        close();
+        Files.delete(mPath);
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (mChannel.isOpen()) {
+                mWriter.close();
+            }
+        }
+    }
+
+    /**
+     * @return journals of commits that never completed, oldest first
+     */
+    public static List<Path> findUnfinished() throws IOException {
+        ArrayList<Path> journals = new ArrayList<>();
+        if (!Files.isDirectory(DIRECTORY)) {
+            return journals;
+        }
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(DIRECTORY, "*" + EXTENSION)) {
+            for (Path path : stream) {
+                journals.add(path);
+            }
+        }
+
+        // names start with the date/time, so this is oldest first
+        Collections.sort(journals);
+        return journals;
+    }
+
+    /**
+     * @return the journal's records, each split into its fields. a torn last line is dropped
+     */
+    public static List<String[]> read(Path journal) throws IOException {
+        ArrayList<String[]> records = new ArrayList<>();
+
+        String content = new String(Files.readAllBytes(journal), StandardCharsets.UTF_8);
+        try (BufferedReader reader = new BufferedReader(new StringReader(content))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                records.add(split(line));
+            }
+        }
+
+        // a record is only complete with its newline
+        if (!content.isEmpty() && !content.endsWith("\n")) {
+            records.remove(records.size() - 1);
+        }
+
+        return records;
+    }
+
+    // ------------------------------------------------------------------------
+    // Private Methods
+    // ------------------------------------------------------------------------
+
+    private static String escape(String field) {
+        return field.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static String[] split(String line) {
+        ArrayList<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+
+            if (c == '\t') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\\' && i + 1 < line.length()) {
+                char next = line.charAt(++i);
+                field.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+
+        return fields.toArray(new String[fields.size()]);
+    }
+}
@@ -0,0 +1,144 @@
+package com.thirtyonetensoftware.renamemediatool.support;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.function.LongConsumer;
+
+/*
+ * a FileChannel that tells a counter about the bytes read through it, for the metrics or IoScheduler's cap.
+ * everything else goes straight to the channel it wraps. mapped regions count as read in full, there's no telling
+ * which pages get touched.
+ */
+public class CountingFileChannel extends FileChannel {
+
+    // ------------------------------------------------------------------------
+    // Instance Variables
+    // ------------------------------------------------------------------------
+
+    private final FileChannel mChannel;
+
+    private final LongConsumer mBytesRead;
+
+    // ------------------------------------------------------------------------
+    // Constructor
+    // ------------------------------------------------------------------------
+
+    public CountingFileChannel(FileChannel channel, LongConsumer bytesRead) {
+        mChannel = channel;
+        mBytesRead = bytesRead;
+    }
+
+    // ------------------------------------------------------------------------
+    // FileChannel Methods
+    // ------------------------------------------------------------------------
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        return count(mChannel.read(dst));
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        long read = mChannel.read(dsts, offset, length);
+        if (read > 0) {
+            mBytesRead.accept(read);
+        }
+        return read;
+    }
+
+    @Override
+    public int read(ByteBuffer dst, long position) throws IOException {
+        return count(mChannel.read(dst, position));
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        return mChannel.write(src);
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        return mChannel.write(srcs, offset, length);
+    }
+
+    @Override
+    public int write(ByteBuffer src, long position) throws IOException {
+        return mChannel.write(src, position);
+    }
+
+    @Override
+    public long position() throws IOException {
+        return mChannel.position();
+    }
+
+    @Override
+    public FileChannel position(long newPosition) throws IOException {
+        mChannel.position(newPosition);
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        return mChannel.size();
+    }
+
+    @Override
+    public FileChannel truncate(long size) throws IOException {
+        mChannel.truncate(size);
+        return this;
+    }
+
+    @Override
+    public void force(boolean metaData) throws IOException {
+        mChannel.force(metaData);
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        long transferred = mChannel.transferTo(position, count, target);
+        mBytesRead.accept(transferred);
+        return transferred;
+    }
+
+    @Override
+    public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+        return mChannel.transferFrom(src, position, count);
+    }
+
+    @Override
+    public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+        mBytesRead.accept(size);
+        return mChannel.map(mode, position, size);
+    }
+
+    @Override
+    public FileLock lock(long position, long size, boolean shared) throws IOException {
+        return mChannel.lock(position, size, shared);
+    }
+
+    @Override
+    public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+        return mChannel.tryLock(position, size, shared);
+    }
+
+    @Override
+    protected void implCloseChannel() throws IOException {
+        mChannel.close();
+    }
+
+    // ------------------------------------------------------------------------
+    // Private Methods
+    // ------------------------------------------------------------------------
+
+    private int count(int read) {
+        if (read > 0) {
+            mBytesRead.accept(read);
+        }
+        return read;
+    }
+}
@@ -0,0 +1,382 @@
+package com.thirtyonetensoftware.renamemediatool.support;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.Month;
+import java.time.Year;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * date/times are epoch millis everywhere, this turns them into local fields and text and back. the per-file paths
+ * (filenames, EXIF values, numbering) go through hand-rolled calendar arithmetic and digit writers, so they don't
+ * allocate and are safe from any thread. the zone's offset is looked up once per stretch between two of its
+ * transitions and cached.
+ *
+ * local means the zone of the instance, see of(). a scan reads in the zone of its ChangeSet and the commit writes in
+ * the same one, so a run never sees the zone change under it, whatever else is going on at the same time. what
+ * doesn't depend on the zone is static.
+ */
+public class DateTimes {
+
+    // ------------------------------------------------------------------------
+    // Class Variables
+    // ------------------------------------------------------------------------
+
+    // for the odd one-off, not per file. these are always in the default time zone
+    public static final DateTimeFormatter STAMP_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    public static final DateTimeFormatter DISPLAY_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    // what an offset parser returns for something that isn't one
+    public static final int NO_OFFSET = Integer.MIN_VALUE;
+
+    // a date/time that isn't there. any other value is a real one, 1970 and before included
+    public static final long NONE = Long.MIN_VALUE;
+
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+
+    // a slot per 30 days, wrapping after about 21 years
+    private static final long SLOT_MILLIS = 30 * MILLIS_PER_DAY;
+    private static final int SLOTS = 256;
+
+    // one per zone, so the offsets looked up are shared by every run in it
+    private static final ConcurrentHashMap<ZoneId, DateTimes> mInstances = new ConcurrentHashMap<>();
+
+    // ------------------------------------------------------------------------
+    // Instance Variables
+    // ------------------------------------------------------------------------
+
+    private final ZoneId mZone;
+
+    private final ZoneRules mRules;
+
+    // ranges are immutable, so a racy read sees a whole one or an old one, both of which are checked
+    private final Range[] mRanges = new Range[SLOTS];
+
+    // ------------------------------------------------------------------------
+    // Constructor
+    // ------------------------------------------------------------------------
+
+    private DateTimes(ZoneId zone) {
+        mZone = zone;
+        mRules = zone.getRules();
+    }
+
+    // ------------------------------------------------------------------------
+    // Public Methods
+    // ------------------------------------------------------------------------
+
+    public static DateTimes of(ZoneId zone) {
+        return mInstances.computeIfAbsent(zone, DateTimes::new);
+    }
+
+    public ZoneId getZone() {
+        return mZone;
+    }
+
+    public int offsetMillis(long dateTime) {
+        int slot = (int) Math.floorMod(Math.floorDiv(dateTime, SLOT_MILLIS), (long) SLOTS);
+
+        Range range = mRanges[slot];
+        if (range == null || dateTime < range.start || dateTime >= range.end) {
+            range = new Range(mRules, dateTime);
+            mRanges[slot] = range;
+        }
+
+        return range.offset;
+    }
+
+    /**
+     * @return the local date/time as seconds since 1970-01-01T00:00, so two date/times are on the same local second
+     * when these are equal
+     */
+    public long localSecond(long dateTime) {
+        return Math.floorDiv(dateTime + offsetMillis(dateTime), 1000);
+    }
+
+    // EXIF and most file systems only keep whole seconds, so anything finer isn't a difference
+    public static boolean isSameSecond(long dateTime, long other) {
+        return Math.floorDiv(dateTime, 1000) == Math.floorDiv(other, 1000);
+    }
+
+    public int year(long dateTime) {
+        return (int) (civil(localDay(dateTime)) >> 9);
+    }
+
+    public int month(long dateTime) {
+        return (int) (civil(localDay(dateTime)) >> 5 & 0xF);
+    }
+
+    /**
+     * fields out of range roll over into the next one, like a lenient Calendar: month 13 is January of the next
+     * year, second 60 is the next minute.
+     *
+     * @return epoch millis for a local date/time
+     */
+    public long toEpochMillis(int year, int month, int day, int hour, int minute, int second) {
+        long local = localMillis(year, month, day, hour, minute, second);
+
+        // the offset at the local time is nearly always the offset at the instant it turns into
+        int offset = offsetMillis(local - offsetMillis(local));
+        long dateTime = local - offset;
+        if (offsetMillis(dateTime - MILLIS_PER_DAY) == offset && offsetMillis(dateTime + MILLIS_PER_DAY) == offset) {
+            return dateTime;
+        }
+
+        // within a day of a transition, let java.time deal with gaps and overlaps
+        return LocalDateTime.of(1970, 1, 1, 0, 0).plusSeconds(Math.floorDiv(local, 1000))
+                .atZone(mZone).toInstant().toEpochMilli();
+    }
+
+    public long toEpochMillis(LocalDateTime dateTime) {
+        return toEpochMillis(dateTime.getYear(), dateTime.getMonthValue(), dateTime.getDayOfMonth(),
+                dateTime.getHour(), dateTime.getMinute(), dateTime.getSecond());
+    }
+
+    /**
+     * parses an EXIF "yyyy:MM:dd HH:mm:ss", optionally followed by an OffsetTime "+HH:MM" that it's then read in
+     * instead of the local zone. any one character can separate the fields
+     *
+     * @return epoch millis, or NONE if it isn't a date/time or a field is out of range
+     */
+    public long parseExif(CharSequence value) {
+        long year = number(value, 0);
+        long month = year < 0 ? -1 : number(value, end(year) + 1);
+        long day = month < 0 ? -1 : number(value, end(month) + 1);
+        long hour = day < 0 ? -1 : number(value, end(day) + 1);
+        long minute = hour < 0 ? -1 : number(value, end(hour) + 1);
+        long second = minute < 0 ? -1 : number(value, end(minute) + 1);
+
+        if (second < 0) {
+            return NONE;
+        }
+
+        // cameras with no clock write all zeros, and a field out of range is garbage rather than a date to roll over
+        int y = number(year);
+        int m = number(month);
+        int d = number(day);
+        if (y < 1 || m < 1 || m > 12 || d < 1 || d > Month.of(m).length(Year.isLeap(y)) ||
+                number(hour) > 23 || number(minute) > 59 || number(second) > 59) {
+            return NONE;
+        }
+
+        int offset = parseOffset(value, end(second));
+        if (offset == NO_OFFSET) {
+            return toEpochMillis(y, m, d, number(hour), number(minute), number(second));
+        }
+
+        return localMillis(y, m, d, number(hour), number(minute), number(second)) - offset;
+    }
+
+    /**
+     * parses an EXIF OffsetTime, "+HH:MM" or "-HH:MM". cameras that don't know their offset write blanks
+     *
+     * @return the offset in millis, or NO_OFFSET if there isn't a valid one at start
+     */
+    public static int parseOffset(CharSequence value, int start) {
+        if (value.length() < start + 6) {
+            return NO_OFFSET;
+        }
+
+        char sign = value.charAt(start);
+        long hours = number(value, start + 1);
+        long minutes = hours < 0 || end(hours) != start + 3 ? -1 : number(value, start + 4);
+        if ((sign != '+' && sign != '-') || minutes < 0 || end(minutes) != start + 6
+                || number(hours) > 18 || number(minutes) > 59) {
+            return NO_OFFSET;
+        }
+
+        int offset = (number(hours) * 60 + number(minutes)) * 60_000;
+        return sign == '-' ? -offset : offset;
+    }
+
+    // yyyy-MM-dd_HHmmss_
+    public StringBuilder appendFilename(StringBuilder builder, long dateTime) {
+        return append(builder, dateTime, '-', '_', (char) 0).append('_');
+    }
+
+    // yyyy:MM:dd HH:mm:ss
+    public StringBuilder appendExif(StringBuilder builder, long dateTime) {
+        return append(builder, dateTime, ':', ' ', ':');
+    }
+
+    // yyyy:MM:dd HH:mm:ss at a fixed offset rather than the local zone, for a file that says what its offset is
+    public static StringBuilder appendExif(StringBuilder builder, long dateTime, int offsetMillis) {
+        return appendLocal(builder, dateTime + offsetMillis, ':', ' ', ':');
+    }
+
+    // yyyy-MM-dd HH:mm:ss
+    public StringBuilder appendDisplay(StringBuilder builder, long dateTime) {
+        return append(builder, dateTime, '-', ' ', ':');
+    }
+
+    // yyyy-MM-ddTHH:mm:ss
+    public StringBuilder appendIso(StringBuilder builder, long dateTime) {
+        return append(builder, dateTime, '-', 'T', ':');
+    }
+
+    // +HH:MM, like an EXIF OffsetTime
+    public static StringBuilder appendOffset(StringBuilder builder, int offsetMillis) {
+        int minutes = Math.abs(offsetMillis) / 60_000;
+        appendDigits(builder.append(offsetMillis < 0 ? '-' : '+'), minutes / 60, 2).append(':');
+        return appendDigits(builder, minutes % 60, 2);
+    }
+
+    public String formatDisplay(long dateTime) {
+        return appendDisplay(new StringBuilder(19), dateTime).toString();
+    }
+
+    public String formatIso(long dateTime) {
+        return appendIso(new StringBuilder(19), dateTime).toString();
+    }
+
+    // 2 digits, more if it needs them
+    public static StringBuilder appendTwoDigits(StringBuilder builder, int value) {
+        return appendDigits(builder, value, 2);
+    }
+
+    // ------------------------------------------------------------------------
+    // Private Methods
+    // ------------------------------------------------------------------------
+
+    private StringBuilder append(StringBuilder builder, long dateTime, char dateSeparator, char middle,
+                                 char timeSeparator) {
+        return appendLocal(builder, dateTime + offsetMillis(dateTime), dateSeparator, middle, timeSeparator);
+    }
+
+    // local is millis since 1970-01-01T00:00 local time
+    private static StringBuilder appendLocal(StringBuilder builder, long local, char dateSeparator, char middle,
+                                             char timeSeparator) {
+        long day = Math.floorDiv(local, MILLIS_PER_DAY);
+        int secondOfDay = (int) (Math.floorMod(local, MILLIS_PER_DAY) / 1000);
+        long civil = civil(day);
+
+        int year = (int) (civil >> 9);
+        if (year < 0) {
+            builder.append('-');
+            year = -year;
+        }
+        appendDigits(builder, year, 4);
+        builder.append(dateSeparator);
+        appendDigits(builder, (int) (civil >> 5 & 0xF), 2);
+        builder.append(dateSeparator);
+        appendDigits(builder, (int) (civil & 0x1F), 2);
+        builder.append(middle);
+
+        appendDigits(builder, secondOfDay / 3600, 2);
+        if (timeSeparator != 0) {
+            builder.append(timeSeparator);
+        }
+        appendDigits(builder, secondOfDay / 60 % 60, 2);
+        if (timeSeparator != 0) {
+            builder.append(timeSeparator);
+        }
+        return appendDigits(builder, secondOfDay % 60, 2);
+    }
+
+    // at least width digits
+    private static StringBuilder appendDigits(StringBuilder builder, int value, int width) {
+        for (int limit = 10, digits = 1; digits < width; limit *= 10, digits++) {
+            if (value < limit) {
+                builder.append('0');
+            }
+        }
+        return builder.append(value);
+    }
+
+    /*
+     * up to 4 digits starting at start, packed as the number << 32 | where it ended, so nothing's allocated.
+     * -1 if there aren't any
+     */
+    private static long number(CharSequence value, int start) {
+        int number = 0;
+        int position = start;
+        while (position < value.length() && position - start < 4) {
+            char c = value.charAt(position);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            number = number * 10 + (c - '0');
+            position++;
+        }
+
+        return position == start ? -1 : (long) number << 32 | position;
+    }
+
+    private static int number(long packed) {
+        return (int) (packed >>> 32);
+    }
+
+    private static int end(long packed) {
+        return (int) packed;
+    }
+
+    // millis since 1970-01-01T00:00 local time, rolling over like toEpochMillis()
+    private static long localMillis(int year, int month, int day, int hour, int minute, int second) {
+        long months = year * 12L + month - 1;
+        long days = daysFromCivil(Math.floorDiv(months, 12), (int) Math.floorMod(months, 12L) + 1) + day - 1;
+        return days * MILLIS_PER_DAY + ((hour * 60L + minute) * 60 + second) * 1000;
+    }
+
+    private long localDay(long dateTime) {
+        return Math.floorDiv(dateTime + offsetMillis(dateTime), MILLIS_PER_DAY);
+    }
+
+    /*
+     * year, month and day of the days since 1970-01-01, packed as year << 9 | month << 5 | day so nothing's
+     * allocated. proleptic gregorian, after Howard Hinnant's civil_from_days.
+     */
+    private static long civil(long days) {
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long shiftedMonth = (5 * dayOfYear + 2) / 153;
+
+        long day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        long month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        return year << 9 | month << 5 | day;
+    }
+
+    // days since 1970-01-01, the other way round from civil()
+    private static long daysFromCivil(long year, int month) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    // ------------------------------------------------------------------------
+    // Range
+    // ------------------------------------------------------------------------
+
+    // the stretch between two transitions that a date/time falls in, and the offset during it
+    private static class Range {
+
+        final long start;
+
+        final long end;
+
+        final int offset;
+
+        Range(ZoneRules rules, long dateTime) {
+            Instant instant = Instant.ofEpochMilli(dateTime);
+            offset = rules.getOffset(instant).getTotalSeconds() * 1000;
+
+            // the last transition at or before the date/time, and the first one after it
+            ZoneOffsetTransition previous = rules.previousTransition(Instant.ofEpochMilli(dateTime + 1));
+            ZoneOffsetTransition next = rules.nextTransition(instant);
+            start = previous != null ? previous.toEpochSecond() * 1000 : Long.MIN_VALUE;
+            end = next != null ? next.toEpochSecond() * 1000 : Long.MAX_VALUE;
+        }
+    }
+}
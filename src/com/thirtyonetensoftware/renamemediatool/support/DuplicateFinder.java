@@ -0,0 +1,273 @@
+package com.thirtyonetensoftware.renamemediatool.support;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * finds files with the same contents as a file scanned before them. files are grouped by size as they're listed, so
+ * a file with a size nothing else has is never read. when sizes collide the first and last 64KB are hashed, and only
+ * when those match is the whole file hashed to make sure.
+ *
+ * hashes are worked out once per file and kept in the scan cache, so a rescan doesn't read them again. a file is often
+ * hashed for a later file of the same size before its own entry is in the cache, so the hashes stay on its Candidate
+ * until findOriginal() is called for it.
+ *
+ * add() is called from the thread listing the files, in listing order. findOriginal() can be called from any
+ * number of threads, so the files of one directory are hashed in parallel.
+ */
+public class DuplicateFinder {
+
+    // ------------------------------------------------------------------------
+    // Class Variables
+    // ------------------------------------------------------------------------
+
+    private static final int SAMPLE_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> mBuffers =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocate(SAMPLE_SIZE));
+
+    // ------------------------------------------------------------------------
+    // Instance Variables
+    // ------------------------------------------------------------------------
+
+    // may be null
+    private final ScanCache mScanCache;
+
+    private final IoScheduler mIoScheduler;
+
+    // the only file of its size so far. most sizes never get a second file, so they never get a group
+    private final HashMap<Long, Candidate> mFirstBySize = new HashMap<>();
+
+    // every file of the size, in the order they were added, once there's more than one. guarded by mFirstBySize
+    private final HashMap<Long, ArrayList<Candidate>> mGroupsBySize = new HashMap<>();
+
+    private final AtomicLong mBytesHashed = new AtomicLong();
+
+    // ------------------------------------------------------------------------
+    // Constructor
+    // ------------------------------------------------------------------------
+
+    public DuplicateFinder(ScanCache scanCache) {
+        this(scanCache, new IoScheduler());
+    }
+
+    // hashing is held to the bytes/sec cap of the store each file is on
+    public DuplicateFinder(ScanCache scanCache, IoScheduler ioScheduler) {
+        mScanCache = scanCache;
+        mIoScheduler = ioScheduler;
+    }
+
+    // ------------------------------------------------------------------------
+    // Public Methods
+    // ------------------------------------------------------------------------
+
+    public Candidate add(File file, long size, long lastModified) {
+        ArrayList<Candidate> group;
+        synchronized (mFirstBySize) {
+            group = mGroupsBySize.get(size);
+            if (group == null) {
+                Candidate first = mFirstBySize.remove(size);
+                if (first == null) {
+                    Candidate candidate = new Candidate(file, size, lastModified, null, 0);
+                    mFirstBySize.put(size, candidate);
+                    return candidate;
+                }
+
+                group = new ArrayList<>(2);
+                group.add(first);
+                mGroupsBySize.put(size, group);
+            }
+        }
+
+        synchronized (group) {
+            Candidate candidate = new Candidate(file, size, lastModified, group, group.size());
+            group.add(candidate);
+            return candidate;
+        }
+    }
+
+    /**
+     * every earlier file of the same size is compared in turn, so a group is quadratic in its size: n files of one
+     * size that all differ make n * (n - 1) / 2 comparisons. each file is still only read once, its hashes are kept.
+     *
+     * call once the file's date/time has been determined, so its entry is in the scan cache.
+     *
+     * @return the first file added before this one with the same contents, or null if there isn't one
+     */
+    public File findOriginal(Candidate candidate) throws IOException {
+        // every empty file is the same, but that's not worth reporting
+        if (candidate.mSize == 0) {
+            return null;
+        }
+
+        // hashed for a later file before its entry was there to keep them in
+        synchronized (candidate) {
+            if (candidate.mQuickHash != null) {
+                storeHashes(candidate);
+            }
+        }
+
+        for (int i = 0; i < candidate.mIndex; i++) {
+            Candidate earlier;
+            synchronized (candidate.mGroup) {
+                earlier = candidate.mGroup.get(i);
+            }
+
+            if (Arrays.equals(quickHash(earlier), quickHash(candidate))
+                    && Arrays.equals(fullHash(earlier), fullHash(candidate))) {
+                return earlier.mFile;
+            }
+        }
+
+        return null;
+    }
+
+    public long getBytesHashed() {
+        return mBytesHashed.get();
+    }
+
+    // ------------------------------------------------------------------------
+    // Private Methods
+    // ------------------------------------------------------------------------
+
+    private byte[] quickHash(Candidate candidate) throws IOException {
+        synchronized (candidate) {
+            if (candidate.mQuickHash == null && !loadHashes(candidate)) {
+                MessageDigest digest = newDigest();
+
+                try (FileChannel channel = open(candidate)) {
+                    if (candidate.mSize <= SAMPLE_SIZE * 2) {
+                        // the head and tail would be the whole file, so this is the full hash as well
+                        update(digest, channel, 0, candidate.mSize);
+                        candidate.mQuickHash = digest.digest();
+                        candidate.mFullHash = candidate.mQuickHash;
+                    } else {
+                        update(digest, channel, 0, SAMPLE_SIZE);
+                        update(digest, channel, candidate.mSize - SAMPLE_SIZE, SAMPLE_SIZE);
+                        candidate.mQuickHash = digest.digest();
+                    }
+                }
+
+                storeHashes(candidate);
+            }
+
+            return candidate.mQuickHash;
+        }
+    }
+
+    private byte[] fullHash(Candidate candidate) throws IOException {
+        synchronized (candidate) {
+            if (candidate.mFullHash == null) {
+                MessageDigest digest = newDigest();
+
+                try (FileChannel channel = open(candidate)) {
+                    update(digest, channel, 0, candidate.mSize);
+                }
+
+                candidate.mFullHash = digest.digest();
+                storeHashes(candidate);
+            }
+
+            return candidate.mFullHash;
+        }
+    }
+
+    private FileChannel open(Candidate candidate) throws IOException {
+        Path path = candidate.mFile.toPath();
+        return mIoScheduler.getStore(path).throttle(FileChannel.open(path, StandardOpenOption.READ));
+    }
+
+    private boolean loadHashes(Candidate candidate) {
+        if (mScanCache == null) {
+            return false;
+        }
+
+        ScanCache.Entry entry = mScanCache.peek(candidate.mFile, candidate.mSize, candidate.mLastModified);
+        if (entry == null || entry.quickHash == null) {
+            return false;
+        }
+
+        candidate.mQuickHash = entry.quickHash;
+        candidate.mFullHash = entry.fullHash;
+        return true;
+    }
+
+    private void storeHashes(Candidate candidate) {
+        if (mScanCache != null) {
+            mScanCache.putHashes(candidate.mFile, candidate.mSize, candidate.mLastModified, candidate.mQuickHash,
+                    candidate.mFullHash);
+        }
+    }
+
+    private void update(MessageDigest digest, FileChannel channel, long position, long length) throws IOException {
+        ByteBuffer buffer = mBuffers.get();
+        long end = position + length;
+
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                // shorter than when it was listed, the hash won't match anything it shouldn't
+                break;
+            }
+
+            buffer.flip();
+            digest.update(buffer);
+            position += read;
+            mBytesHashed.addAndGet(read);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM has SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Candidate
+    // ------------------------------------------------------------------------
+
+    public static class Candidate {
+
+        private final File mFile;
+
+        private final long mSize;
+
+        private final long mLastModified;
+
+        // every candidate of the same size, in the order they were added. null for the first of its size, which
+        // has nothing before it to compare to
+        private final ArrayList<Candidate> mGroup;
+
+        private final int mIndex;
+
+        // guarded by this
+        private byte[] mQuickHash;
+
+        private byte[] mFullHash;
+
+        private Candidate(File file, long size, long lastModified, ArrayList<Candidate> group, int index) {
+            mFile = file;
+            mSize = size;
+            mLastModified = lastModified;
+            mGroup = group;
+            mIndex = index;
+        }
+    }
+}
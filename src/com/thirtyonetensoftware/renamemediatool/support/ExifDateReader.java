@@ -0,0 +1,371 @@
+package com.thirtyonetensoftware.renamemediatool.support;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * reads DateTimeOriginal / CreateDate, and the OffsetTime that goes with it, straight out of a jpeg's APP1 segment,
+ * without parsing the rest of the metadata. only the segment headers up to the EXIF segment and the segment itself
+ * are read, never the image data.
+ *
+ * anything unexpected throws a MalformedExifException, the caller should fall back to Sanselan for those files.
+ */
+public class ExifDateReader {
+
+    // ------------------------------------------------------------------------
+    // Class Variables
+    // ------------------------------------------------------------------------
+
+    // a segment's length is 2 bytes, so a whole segment plus its marker always fits
+    private static final int BUFFER_SIZE = 64 * 1024 + 4;
+
+    private static final int MARKER_SOI = 0xD8;
+    private static final int MARKER_EOI = 0xD9;
+    private static final int MARKER_SOS = 0xDA;
+    private static final int MARKER_APP1 = 0xE1;
+
+    static final int TAG_EXIF_OFFSET = 0x8769;
+    static final int TAG_DATE_TIME_ORIGINAL = 0x9003;
+    static final int TAG_CREATE_DATE = 0x9004;
+    static final int TAG_OFFSET_TIME = 0x9010;
+    static final int TAG_OFFSET_TIME_ORIGINAL = 0x9011;
+    static final int TAG_OFFSET_TIME_DIGITIZED = 0x9012;
+
+    static final int TYPE_ASCII = 2;
+    private static final int TYPE_LONG = 4;
+
+    private static final byte[] EXIF_HEADER = {'E', 'x', 'i', 'f', 0, 0};
+
+    // one buffer per scanning thread
+    private static final ThreadLocal<ByteBuffer> mBuffers = ThreadLocal.withInitial(() ->
+            ByteBuffer.allocate(BUFFER_SIZE));
+
+    // ------------------------------------------------------------------------
+    // Public Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * @return the DateTimeOriginal value, else the CreateDate value, else null if the file has neither. when the
+     * file also says what offset from UTC it was taken at, that's appended: "yyyy:MM:dd HH:mm:ss+HH:MM"
+     * @throws MalformedExifException if the file isn't a jpeg this reader understands
+     */
+    public static String readDateTime(File file) throws IOException, MalformedExifException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return readDateTime(channel);
+        }
+    }
+
+    public static String readDateTime(FileChannel channel) throws IOException, MalformedExifException {
+        Tiff tiff = openTiff(channel);
+        return tiff == null ? null : readTiffDateTime(tiff.buffer);
+    }
+
+    /**
+     * reads a bare TIFF structure, as kept in a png's eXIf chunk or a HEIF's Exif item
+     *
+     * @param tiff starts at the TIFF header, its byte order doesn't matter
+     */
+    public static String readDateTime(ByteBuffer tiff) throws MalformedExifException {
+        return readTiffDateTime(checkTiff(tiff.slice()));
+    }
+
+    /**
+     * @return the EXIF date/time in epoch millis, read at its offset if it has one, else in the zone of dateTimes
+     */
+    public static long parseDateTime(String value, DateTimes dateTimes) throws MetadataException {
+        long dateTime = dateTimes.parseExif(value);
+        if (dateTime == DateTimes.NONE) {
+            throw new MetadataException("Unparseable date: \"" + value + "\"");
+        }
+        return dateTime;
+    }
+
+    /**
+     * @return the offset tags for DateTimeOriginal or CreateDate, best first. OffsetTime is for DateTime, but it's
+     * usually the same and some writers only fill that one in
+     */
+    public static int[] offsetTags(boolean original) {
+        return original ? new int[]{TAG_OFFSET_TIME_ORIGINAL, TAG_OFFSET_TIME}
+                : new int[]{TAG_OFFSET_TIME_DIGITIZED, TAG_OFFSET_TIME};
+    }
+
+    // ------------------------------------------------------------------------
+    // Package Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * finds the jpeg's EXIF segment and loads it into this thread's buffer.
+     *
+     * @return the TIFF structure inside the EXIF segment, or null if the jpeg doesn't have one
+     */
+    static Tiff openTiff(FileChannel channel) throws IOException, MalformedExifException {
+        ByteBuffer buffer = mBuffers.get();
+        buffer.clear();
+
+        long size = channel.size();
+        long position = 0;
+
+        if (size < 4) {
+            throw new MalformedExifException("not a jpeg");
+        }
+
+        read(channel, buffer, position, (int) Math.min(size, BUFFER_SIZE));
+        if ((buffer.get(0) & 0xFF) != 0xFF || (buffer.get(1) & 0xFF) != MARKER_SOI) {
+            throw new MalformedExifException("not a jpeg");
+        }
+
+        // buffer holds the file from bufferStart on
+        long bufferStart = 0;
+        position = 2;
+
+        while (position + 4 <= size) {
+            if (position + 4 > bufferStart + buffer.limit()) {
+                bufferStart = position;
+                read(channel, buffer, position, (int) Math.min(size - position, BUFFER_SIZE));
+            }
+
+            int offset = (int) (position - bufferStart);
+            if ((buffer.get(offset) & 0xFF) != 0xFF) {
+                throw new MalformedExifException("expected a marker at " + position);
+            }
+
+            int marker = buffer.get(offset + 1) & 0xFF;
+            if (marker == MARKER_SOS || marker == MARKER_EOI) {
+                // image data from here on, there's no EXIF
+                return null;
+            }
+
+            int length = buffer.getShort(offset + 2) & 0xFFFF;
+            if (length < 2) {
+                throw new MalformedExifException("bad segment length at " + position);
+            }
+
+            if (marker == MARKER_APP1) {
+                if (position + 2 + length > bufferStart + buffer.limit()) {
+                    bufferStart = position;
+                    read(channel, buffer, position, 2 + length);
+                    offset = 0;
+                }
+
+                if (isExifSegment(buffer, offset + 4, length - 2)) {
+                    int tiffStart = offset + 4 + EXIF_HEADER.length;
+                    return new Tiff(slice(buffer, tiffStart, length - 2 - EXIF_HEADER.length),
+                            bufferStart + tiffStart);
+                }
+            }
+
+            position += 2 + length;
+        }
+
+        return null;
+    }
+
+    // returns the position of the tag's 12 byte IFD entry, or -1
+    static int findEntry(ByteBuffer tiff, int ifd, int tag) {
+        int count = tiff.getShort(ifd) & 0xFFFF;
+
+        for (int i = 0; i < count; i++) {
+            int entry = ifd + 2 + i * 12;
+            if ((tiff.getShort(entry) & 0xFFFF) == tag) {
+                return entry;
+            }
+        }
+
+        return -1;
+    }
+
+    static int findLong(ByteBuffer tiff, int ifd, int tag) {
+        int entry = findEntry(tiff, ifd, tag);
+        if (entry < 0 || (tiff.getShort(entry + 2) & 0xFFFF) != TYPE_LONG) {
+            return -1;
+        }
+
+        return tiff.getInt(entry + 8);
+    }
+
+    static int exifIfd(ByteBuffer tiff) {
+        return findLong(tiff, ifd0(tiff), TAG_EXIF_OFFSET);
+    }
+
+    static int ifd0(ByteBuffer tiff) {
+        return tiff.getInt(4);
+    }
+
+    /**
+     * @param tags the offset tags to try, in order
+     * @return the first valid offset in millis, or DateTimes.NO_OFFSET
+     */
+    static int findOffset(ByteBuffer tiff, int[] tags) {
+        int ifd0 = ifd0(tiff);
+        int exifIfd = exifIfd(tiff);
+
+        for (int tag : tags) {
+            for (int ifd : new int[]{exifIfd, ifd0}) {
+                String value = ifd > 0 ? findAscii(tiff, ifd, tag) : null;
+                int offset = value == null ? DateTimes.NO_OFFSET : DateTimes.parseOffset(value, 0);
+                if (offset != DateTimes.NO_OFFSET) {
+                    return offset;
+                }
+            }
+        }
+
+        return DateTimes.NO_OFFSET;
+    }
+
+    // ------------------------------------------------------------------------
+    // Private Methods
+    // ------------------------------------------------------------------------
+
+    private static void read(FileChannel channel, ByteBuffer buffer, long position, int length)
+            throws IOException, MalformedExifException {
+        buffer.clear();
+        buffer.limit(length);
+
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new MalformedExifException("unexpected end of file");
+            }
+        }
+
+        buffer.flip();
+    }
+
+    private static boolean isExifSegment(ByteBuffer buffer, int offset, int length) {
+        if (length < EXIF_HEADER.length) {
+            return false;
+        }
+
+        for (int i = 0; i < EXIF_HEADER.length; i++) {
+            if (buffer.get(offset + i) != EXIF_HEADER[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static ByteBuffer slice(ByteBuffer segment, int start, int length) throws MalformedExifException {
+        try {
+            return checkTiff(((ByteBuffer) segment.duplicate().position(start).limit(start + length)).slice());
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new MalformedExifException("truncated EXIF: " + e);
+        }
+    }
+
+    // sets the byte order from the TIFF header
+    private static ByteBuffer checkTiff(ByteBuffer tiff) throws MalformedExifException {
+        try {
+            if (tiff.get(0) == 'I' && tiff.get(1) == 'I') {
+                tiff.order(ByteOrder.LITTLE_ENDIAN);
+            } else if (tiff.get(0) == 'M' && tiff.get(1) == 'M') {
+                tiff.order(ByteOrder.BIG_ENDIAN);
+            } else {
+                throw new MalformedExifException("bad TIFF byte order");
+            }
+
+            if (tiff.getShort(2) != 42) {
+                throw new MalformedExifException("bad TIFF header");
+            }
+
+            return tiff;
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new MalformedExifException("truncated EXIF: " + e);
+        }
+    }
+
+    private static String readTiffDateTime(ByteBuffer tiff) throws MalformedExifException {
+        try {
+            int ifd0 = ifd0(tiff);
+
+            // DateTimeOriginal and CreateDate live in the EXIF sub IFD, but some writers put them in IFD0
+            String dateTimeOriginal = findAscii(tiff, ifd0, TAG_DATE_TIME_ORIGINAL);
+            String createDate = findAscii(tiff, ifd0, TAG_CREATE_DATE);
+
+            int exifIfd = exifIfd(tiff);
+            if (exifIfd > 0) {
+                if (dateTimeOriginal == null) {
+                    dateTimeOriginal = findAscii(tiff, exifIfd, TAG_DATE_TIME_ORIGINAL);
+                }
+                if (createDate == null) {
+                    createDate = findAscii(tiff, exifIfd, TAG_CREATE_DATE);
+                }
+            }
+
+            String value = dateTimeOriginal != null ? dateTimeOriginal : createDate;
+            if (value == null) {
+                return null;
+            }
+
+            int offset = findOffset(tiff, offsetTags(dateTimeOriginal != null));
+            return offset == DateTimes.NO_OFFSET ? value :
+                    DateTimes.appendOffset(new StringBuilder(value), offset).toString();
+        } catch (IndexOutOfBoundsException | BufferUnderflowException | IllegalArgumentException e) {
+            throw new MalformedExifException("truncated EXIF: " + e);
+        }
+    }
+
+    private static String findAscii(ByteBuffer tiff, int ifd, int tag) {
+        int entry = findEntry(tiff, ifd, tag);
+        if (entry < 0 || (tiff.getShort(entry + 2) & 0xFFFF) != TYPE_ASCII) {
+            return null;
+        }
+
+        int count = tiff.getInt(entry + 4);
+        // values of 4 bytes or less are stored in the entry itself
+        int valueOffset = count <= 4 ? entry + 8 : tiff.getInt(entry + 8);
+        if (count < 0 || valueOffset < 0 || valueOffset + count > tiff.limit()) {
+            throw new IndexOutOfBoundsException("ASCII value out of bounds");
+        }
+
+        byte[] bytes = new byte[count];
+        for (int i = 0; i < count; i++) {
+            bytes[i] = tiff.get(valueOffset + i);
+        }
+
+        // strip the NUL terminator and any padding
+        int end = count;
+        while (end > 0 && (bytes[end - 1] == 0 || bytes[end - 1] == ' ')) {
+            end--;
+        }
+
+        return new String(bytes, 0, end, StandardCharsets.US_ASCII).trim();
+    }
+
+    // ------------------------------------------------------------------------
+    // Tiff
+    // ------------------------------------------------------------------------
+
+    static class Tiff {
+
+        // the TIFF structure, offsets in it are relative to the TIFF header
+        final ByteBuffer buffer;
+
+        // where the TIFF header is in the file
+        final long position;
+
+        Tiff(ByteBuffer buffer, long position) {
+            this.buffer = buffer;
+            this.position = position;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Exceptions
+    // ------------------------------------------------------------------------
+
+    public static class MalformedExifException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        public MalformedExifException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.thirtyonetensoftware.renamemediatool.support;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * overwrites a jpeg's DateTimeOriginal and CreateDate in place. EXIF date/times are always "yyyy:MM:dd HH:mm:ss", so
+ * when both tags are already there the new value fits exactly where the old one was, and only those bytes get written
+ * instead of the whole file.
+ *
+ * a file that says what offset from UTC it was taken at (OffsetTimeOriginal / OffsetTime) gets its new value at that
+ * offset, so the two still agree; the offset itself is left alone.
+ */
+public class ExifDateWriter {
+
+    // ------------------------------------------------------------------------
+    // Class Variables
+    // ------------------------------------------------------------------------
+
+    private static final int[] TAGS = {ExifDateReader.TAG_DATE_TIME_ORIGINAL, ExifDateReader.TAG_CREATE_DATE};
+
+    // ------------------------------------------------------------------------
+    // Public Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * @return the EXIF value for an epoch millis date/time, in the zone of dateTimes
+     */
+    public static String formatDateTime(long dateTime, DateTimes dateTimes) {
+        return dateTimes.appendExif(new StringBuilder(19), dateTime).toString();
+    }
+
+    /**
+     * @param offset millis from UTC, or DateTimes.NO_OFFSET for the zone of dateTimes
+     * @return the EXIF value for an epoch millis date/time at the offset
+     */
+    public static String formatDateTime(long dateTime, int offset, DateTimes dateTimes) {
+        return offset == DateTimes.NO_OFFSET ? formatDateTime(dateTime, dateTimes) :
+                DateTimes.appendExif(new StringBuilder(19), dateTime, offset).toString();
+    }
+
+    /**
+     * @return true if the tags were patched, false if the file has to be rewritten instead. nothing is written unless
+     * every tag can be patched
+     */
+    public static boolean patchDateTime(File file, long dateTime, DateTimes dateTimes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            ExifDateReader.Tiff tiff = ExifDateReader.openTiff(channel);
+            if (tiff == null) {
+                return false;
+            }
+
+            // both tags get the value, and DateTimeOriginal is the one read back
+            int offset = ExifDateReader.findOffset(tiff.buffer, ExifDateReader.offsetTags(true));
+            byte[] value = formatDateTime(dateTime, offset, dateTimes).getBytes(StandardCharsets.US_ASCII);
+
+            // file position and length of every value to overwrite
+            long[] positions = new long[TAGS.length * 2];
+            int[] lengths = new int[TAGS.length * 2];
+            int fields = 0;
+
+            int ifd0 = ExifDateReader.ifd0(tiff.buffer);
+            int exifIfd = ExifDateReader.exifIfd(tiff.buffer);
+
+            for (int tag : TAGS) {
+                boolean found = false;
+
+                for (int ifd : new int[]{ifd0, exifIfd}) {
+                    if (ifd <= 0) {
+                        continue;
+                    }
+
+                    int entry = ExifDateReader.findEntry(tiff.buffer, ifd, tag);
+                    if (entry < 0) {
+                        continue;
+                    }
+
+                    int count = tiff.buffer.getInt(entry + 4);
+                    // the value has to be the same length, with or without its NUL terminator
+                    if ((tiff.buffer.getShort(entry + 2) & 0xFFFF) != ExifDateReader.TYPE_ASCII ||
+                            (count != value.length && count != value.length + 1) || count <= 4) {
+                        return false;
+                    }
+
+                    // the offset comes from the file. one outside the EXIF segment would have the value written
+                    // over the TIFF header or the image, so leave it to the full rewrite
+                    long valueOffset = tiff.buffer.getInt(entry + 8) & 0xFFFFFFFFL;
+                    if (valueOffset < 8 || valueOffset + count > tiff.buffer.limit()) {
+                        return false;
+                    }
+
+                    positions[fields] = tiff.position + valueOffset;
+                    lengths[fields] = count;
+                    fields++;
+                    found = true;
+                }
+
+                // the full rewrite adds missing tags, patching can't
+                if (!found) {
+                    return false;
+                }
+            }
+
+            for (int i = 0; i < fields; i++) {
+                ByteBuffer buffer = ByteBuffer.allocate(lengths[i]);
+                buffer.put(value);
+                buffer.rewind();
+
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer, positions[i] + buffer.position());
+                }
+            }
+
+            return true;
+        } catch (ExifDateReader.MalformedExifException | IndexOutOfBoundsException | BufferUnderflowException e) {
+            return false;
+        }
+    }
+}
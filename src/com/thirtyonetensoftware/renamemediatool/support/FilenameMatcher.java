@@ -0,0 +1,258 @@
+package com.thirtyonetensoftware.renamemediatool.support;
+
+import java.time.LocalDateTime;
+import java.time.Month;
+import java.time.Year;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * all the FilenameTesters' templates compiled into one tree, walked once per filename. every position in a template is
+ * either a digit or a literal character, so there's only ever one path to follow. each node knows which templates end
+ * there, and the digits of a matched template are read straight out of the filename.
+ *
+ * immutable once built, so one matcher can be shared by all the scanning threads.
+ */
+public class FilenameMatcher {
+
+    // ------------------------------------------------------------------------
+    // Class Variables
+    // ------------------------------------------------------------------------
+
+    // templates are tracked as bits of a long
+    private static final int MAX_TESTERS = 64;
+
+    // ------------------------------------------------------------------------
+    // Instance Variables
+    // ------------------------------------------------------------------------
+
+    private final Node mRoot = new Node();
+
+    private final Template[] mTemplates;
+
+    private final String[] mNames;
+
+    // how often each tester's date was used, for the metrics
+    private final LongAdder[] mHits;
+
+    private final LongAdder mParses = new LongAdder();
+
+    // ------------------------------------------------------------------------
+    // Constructors
+    // ------------------------------------------------------------------------
+
+    /**
+     * @param testers in order of preference. if more than one matches, the first one with a valid date wins
+     */
+    public FilenameMatcher(List<? extends FilenameTester> testers) {
+        if (testers.size() > MAX_TESTERS) {
+            throw new IllegalArgumentException("at most " + MAX_TESTERS + " filename testers are supported");
+        }
+
+        mTemplates = new Template[testers.size()];
+        mNames = new String[testers.size()];
+        mHits = new LongAdder[testers.size()];
+
+        for (int i = 0; i < testers.size(); i++) {
+            FilenameTester tester = testers.get(i);
+            String template = tester.template();
+            mTemplates[i] = new Template(template, tester.defaultHour());
+            mNames[i] = tester.getClass().getSimpleName();
+            mHits[i] = new LongAdder();
+
+            Node node = mRoot;
+            for (int c = 0; c < template.length(); c++) {
+                node = node.child(template.charAt(c));
+            }
+            node.mTerminals |= 1L << i;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Public Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * @return the date/time of the first template that matches the start of the filename and holds a valid date, or
+     * null if none do
+     */
+    public LocalDateTime parse(CharSequence filename) {
+        mParses.increment();
+
+        long matched = 0;
+        Node node = mRoot;
+
+        for (int i = 0; node != null; i++) {
+            matched |= node.mTerminals;
+
+            if (i == filename.length()) {
+                break;
+            }
+
+            char c = filename.charAt(i);
+            node = c >= '0' && c <= '9' ? node.mDigit : node.literal(c);
+        }
+
+        // lowest bit first, which is the order the testers were given in
+        while (matched != 0) {
+            int template = Long.numberOfTrailingZeros(matched);
+            LocalDateTime dateTime = mTemplates[template].parse(filename);
+            if (dateTime != null) {
+                mHits[template].increment();
+                return dateTime;
+            }
+
+            matched &= matched - 1;
+        }
+
+        return null;
+    }
+
+    public int getTesterCount() {
+        return mTemplates.length;
+    }
+
+    public String getTesterName(int tester) {
+        return mNames[tester];
+    }
+
+    // filenames the tester's date was taken from
+    public long getHits(int tester) {
+        return mHits[tester].sum();
+    }
+
+    public long getParses() {
+        return mParses.sum();
+    }
+
+    // ------------------------------------------------------------------------
+    // Node
+    // ------------------------------------------------------------------------
+
+    private static class Node {
+
+        private Node mDigit;
+
+        private char[] mLiterals = new char[0];
+
+        private Node[] mLiteralNodes = new Node[0];
+
+        // bit i is set if template i ends at this node
+        private long mTerminals;
+
+        private Node child(char templateChar) {
+            if (Template.isField(templateChar)) {
+                if (mDigit == null) {
+                    mDigit = new Node();
+                }
+                return mDigit;
+            }
+
+            if (templateChar >= '0' && templateChar <= '9') {
+                throw new IllegalArgumentException("templates can't have literal digits: " + templateChar);
+            }
+
+            Node node = literal(templateChar);
+            if (node == null) {
+                int length = mLiterals.length;
+
+                char[] literals = new char[length + 1];
+                System.arraycopy(mLiterals, 0, literals, 0, length);
+                Node[] nodes = new Node[length + 1];
+                System.arraycopy(mLiteralNodes, 0, nodes, 0, length);
+
+                node = new Node();
+                literals[length] = templateChar;
+                nodes[length] = node;
+
+                mLiterals = literals;
+                mLiteralNodes = nodes;
+            }
+
+            return node;
+        }
+
+        private Node literal(char c) {
+            // there's only ever a handful of these, a linear scan beats hashing
+            for (int i = 0; i < mLiterals.length; i++) {
+                if (mLiterals[i] == c) {
+                    return mLiteralNodes[i];
+                }
+            }
+
+            return null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Template
+    // ------------------------------------------------------------------------
+
+    private static class Template {
+
+        private static final String FIELDS = "yMdHms";
+
+        // offset and length of each field in FIELDS order, length 0 if the template doesn't have it
+        private final int[] mOffsets = new int[FIELDS.length()];
+
+        private final int[] mLengths = new int[FIELDS.length()];
+
+        private final int mDefaultHour;
+
+        private Template(String template, int defaultHour) {
+            mDefaultHour = defaultHour;
+
+            for (int i = 0; i < template.length(); i++) {
+                int field = FIELDS.indexOf(template.charAt(i));
+                if (field < 0) {
+                    continue;
+                }
+
+                if (mLengths[field] == 0) {
+                    mOffsets[field] = i;
+                } else if (mOffsets[field] + mLengths[field] != i) {
+                    throw new IllegalArgumentException("field " + FIELDS.charAt(field) + " is split in " + template);
+                }
+                mLengths[field]++;
+            }
+
+            if (mLengths[0] != 4) {
+                throw new IllegalArgumentException("templates need a 4 digit year: " + template);
+            }
+        }
+
+        private static boolean isField(char c) {
+            return FIELDS.indexOf(c) >= 0;
+        }
+
+        // the template has already matched, so every field is known to be digits
+        private LocalDateTime parse(CharSequence filename) {
+            int year = field(filename, 0, 1);
+            int month = field(filename, 1, 1);
+            int day = field(filename, 2, 1);
+            int hour = field(filename, 3, mDefaultHour);
+            int minute = field(filename, 4, 0);
+            int second = field(filename, 5, 0);
+
+            if (month < 1 || month > 12 || day < 1 || day > Month.of(month).length(Year.isLeap(year)) ||
+                    hour > 23 || minute > 59 || second > 59) {
+                return null;
+            }
+
+            return LocalDateTime.of(year, month, day, hour, minute, second);
+        }
+
+        private int field(CharSequence filename, int field, int defaultValue) {
+            int length = mLengths[field];
+            if (length == 0) {
+                return defaultValue;
+            }
+
+            int value = 0;
+            for (int i = mOffsets[field], end = i + length; i < end; i++) {
+                value = value * 10 + (filename.charAt(i) - '0');
+            }
+            return value;
+        }
+    }
+}
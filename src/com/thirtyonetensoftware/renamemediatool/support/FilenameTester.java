@@ -1,35 +1,42 @@
 package com.thirtyonetensoftware.renamemediatool.support;
 
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.util.Calendar;
-import java.util.Date;
-import java.util.regex.Pattern;
+import java.time.LocalDateTime;
+import java.util.Collections;
 
+/*
+ * describes one filename layout that has a date/time in it. testers don't parse anything themselves, they're compiled
+ * together into a FilenameMatcher, which tries every layout in a single pass over the filename.
+ */
 public abstract class FilenameTester {
 
-    protected abstract String getPattern();
+    private FilenameMatcher mMatcher;
 
-    protected abstract DateFormat getDateFormat();
+    /**
+     * the start of the filenames this tester matches. y, M, d, H, m and s stand for the digits of the year, month,
+     * day, hour, minute and second, any other character has to be in the filename as is. whatever comes after the
+     * template is ignored. i.e. "yyyy-MM-dd_" matches "2017-06-25_anything.jpg"
+     */
+    protected abstract String getTemplate();
 
-    protected void adjustDate(Calendar calendar) {
+    // hour to use when the template has no time in it
+    protected int getDefaultHour() {
+        return 0;
     }
 
-    public final Date parseFilenameForDateTime(String filename) {
-        try {
-            if (Pattern.matches(getPattern(), filename)) {
-                Date date = getDateFormat().parse(filename);
+    // parses with this tester alone. to try several testers, compile them into a FilenameMatcher
+    public final LocalDateTime parseFilenameForDateTime(String filename) {
+        if (mMatcher == null) {
+            mMatcher = new FilenameMatcher(Collections.singletonList(this));
+        }
 
-                Calendar calendar = Calendar.getInstance();
-                calendar.setTime(date);
-                adjustDate(calendar);
+        return mMatcher.parse(filename);
+    }
 
-                return calendar.getTime();
-            }
-        } catch (ParseException e) {
-            // do nothing
-        }
+    final String template() {
+        return getTemplate();
+    }
 
-        return null;
+    final int defaultHour() {
+        return getDefaultHour();
     }
 }
@@ -0,0 +1,226 @@
+package com.thirtyonetensoftware.renamemediatool.support;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+ * reads DateTimeOriginal / CreateDate out of a HEIF (heic) image. the EXIF is an item like the image itself: meta/iinf
+ * says which item is the Exif one, meta/iloc says where it is in the file. so it's the meta box and then the EXIF,
+ * never the image data.
+ */
+public class HeifDateReader {
+
+    // ------------------------------------------------------------------------
+    // Class Variables
+    // ------------------------------------------------------------------------
+
+    private static final int TYPE_FTYP = VideoDateReader.type("ftyp");
+    private static final int TYPE_META = VideoDateReader.type("meta");
+    private static final int TYPE_IINF = VideoDateReader.type("iinf");
+    private static final int TYPE_INFE = VideoDateReader.type("infe");
+    private static final int TYPE_ILOC = VideoDateReader.type("iloc");
+    private static final int TYPE_EXIF = VideoDateReader.type("Exif");
+
+    private static final int[] BRANDS = {
+            VideoDateReader.type("heic"),
+            VideoDateReader.type("heix"),
+            VideoDateReader.type("hevc"),
+            VideoDateReader.type("hevx"),
+            VideoDateReader.type("heim"),
+            VideoDateReader.type("heis"),
+            VideoDateReader.type("mif1"),
+            VideoDateReader.type("msf1")
+    };
+
+    // meta is item info and locations, it's small unless something's wrong
+    private static final int MAX_META_SIZE = 1024 * 1024;
+
+    private static final int MAX_EXIF_SIZE = 1024 * 1024;
+
+    // ------------------------------------------------------------------------
+    // Public Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * @param header the first 12 bytes of the file
+     * @return true if the ftyp box's major brand is a HEIF one
+     */
+    public static boolean isHeif(ByteBuffer header) {
+        if (header.limit() < 12 || header.getInt(4) != TYPE_FTYP) {
+            return false;
+        }
+
+        int brand = header.getInt(8);
+        for (int heif : BRANDS) {
+            if (brand == heif) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the DateTimeOriginal value, else the CreateDate value, else null if the file has neither
+     */
+    public static String readDateTime(FileChannel channel) throws IOException {
+        long[] meta = VideoDateReader.findBox(channel, 0, channel.size(), TYPE_META);
+        if (meta == null || meta[1] - meta[0] > MAX_META_SIZE) {
+            return null;
+        }
+
+        try {
+            ByteBuffer box = VideoDateReader.read(channel, meta[0], (int) (meta[1] - meta[0]));
+
+            // meta is a full box, its children come after the version and flags
+            long[] exif = findExif(box, 4, box.limit());
+            if (exif == null || exif[1] <= 4 || exif[1] > MAX_EXIF_SIZE) {
+                return null;
+            }
+
+            // the item starts with the offset of the TIFF header from the end of that offset
+            ByteBuffer item = VideoDateReader.read(channel, exif[0], (int) exif[1]);
+            int tiff = 4 + item.getInt(0);
+            if (tiff < 4 || tiff >= item.limit()) {
+                return null;
+            }
+
+            item.position(tiff);
+            return ExifDateReader.readDateTime(item);
+        } catch (IndexOutOfBoundsException | ExifDateReader.MalformedExifException e) {
+            // not something this reader understands
+            return null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Private Methods
+    // ------------------------------------------------------------------------
+
+    // returns the file position and length of the Exif item, or null
+    private static long[] findExif(ByteBuffer meta, int start, int end) {
+        int[] iinf = findBox(meta, start, end, TYPE_IINF);
+        int[] iloc = findBox(meta, start, end, TYPE_ILOC);
+        if (iinf == null || iloc == null) {
+            return null;
+        }
+
+        long id = findExifId(meta, iinf);
+        return id < 0 ? null : findLocation(meta, iloc, id);
+    }
+
+    private static long findExifId(ByteBuffer meta, int[] iinf) {
+        int version = meta.get(iinf[0]) & 0xFF;
+        int entries = iinf[0] + 4 + (version == 0 ? 2 : 4);
+
+        for (int[] infe = findBox(meta, entries, iinf[1], TYPE_INFE); infe != null;
+             infe = findBox(meta, infe[1], iinf[1], TYPE_INFE)) {
+            int infeVersion = meta.get(infe[0]) & 0xFF;
+            if (infeVersion < 2) {
+                // older entries don't have an item type
+                continue;
+            }
+
+            int position = infe[0] + 4;
+            long id = infeVersion == 2 ? meta.getShort(position) & 0xFFFF : meta.getInt(position) & 0xFFFFFFFFL;
+            position += infeVersion == 2 ? 2 : 4;
+
+            // after the protection index
+            if (meta.getInt(position + 2) == TYPE_EXIF) {
+                return id;
+            }
+        }
+
+        return -1;
+    }
+
+    private static long[] findLocation(ByteBuffer meta, int[] iloc, long id) {
+        int version = meta.get(iloc[0]) & 0xFF;
+        int position = iloc[0] + 4;
+
+        int offsetSize = (meta.get(position) & 0xFF) >> 4;
+        int lengthSize = meta.get(position) & 0x0F;
+        int baseOffsetSize = (meta.get(position + 1) & 0xFF) >> 4;
+        int indexSize = version == 1 || version == 2 ? meta.get(position + 1) & 0x0F : 0;
+        position += 2;
+
+        long items = version < 2 ? meta.getShort(position) & 0xFFFF : meta.getInt(position) & 0xFFFFFFFFL;
+        position += version < 2 ? 2 : 4;
+
+        for (long i = 0; i < items; i++) {
+            long itemId = version < 2 ? meta.getShort(position) & 0xFFFF : meta.getInt(position) & 0xFFFFFFFFL;
+            position += version < 2 ? 2 : 4;
+
+            int constructionMethod = 0;
+            if (version == 1 || version == 2) {
+                constructionMethod = meta.getShort(position) & 0x0F;
+                position += 2;
+            }
+
+            // data reference index
+            position += 2;
+
+            long baseOffset = readSize(meta, position, baseOffsetSize);
+            position += baseOffsetSize;
+
+            int extents = meta.getShort(position) & 0xFFFF;
+            position += 2;
+
+            long offset = -1, length = -1;
+            for (int extent = 0; extent < extents; extent++) {
+                position += indexSize;
+                long extentOffset = readSize(meta, position, offsetSize);
+                position += offsetSize;
+                long extentLength = readSize(meta, position, lengthSize);
+                position += lengthSize;
+
+                if (extent == 0) {
+                    offset = baseOffset + extentOffset;
+                    length = extentLength;
+                }
+            }
+
+            if (itemId == id) {
+                // only items stored straight in the file, in one piece
+                return constructionMethod == 0 && extents == 1 ? new long[]{offset, length} : null;
+            }
+        }
+
+        return null;
+    }
+
+    // returns the start of the box's contents and the end of the box, or null
+    private static int[] findBox(ByteBuffer buffer, int start, int end, int type) {
+        int position = start;
+
+        while (position + 8 <= end) {
+            long size = buffer.getInt(position) & 0xFFFFFFFFL;
+            if (size == 0) {
+                size = end - position;
+            }
+            if (size < 8 || position + size > end) {
+                return null;
+            }
+
+            if (buffer.getInt(position + 4) == type) {
+                return new int[]{position + 8, position + (int) size};
+            }
+
+            position += (int) size;
+        }
+
+        return null;
+    }
+
+    private static long readSize(ByteBuffer buffer, int position, int size) {
+        switch (size) {
+            case 4:
+                return buffer.getInt(position) & 0xFFFFFFFFL;
+            case 8:
+                return buffer.getLong(position);
+            default:
+                return 0;
+        }
+    }
+}
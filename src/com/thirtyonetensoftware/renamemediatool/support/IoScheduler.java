@@ -0,0 +1,258 @@
+package com.thirtyonetensoftware.renamemediatool.support;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * limits the file I/O of the engines per FileStore (a disk, a partition, a network share), so a spinning disk or a
+ * NAS isn't made to seek between more files than it can keep up with, while an SSD next to it still runs flat out.
+ * each store gets its own limit on how many files are worked on at once and its own bytes/sec cap. limits are looked
+ * up by the store's name (e.g. /dev/sdb1 or server:/share), then its type (e.g. nfs, cifs), then the default.
+ * nothing is limited unless it's asked for, and then no store is looked up at all.
+ *
+ * set the limits before the first getStore(), stores keep the limits they were made with. everything else is safe
+ * to call from any thread.
+ */
+public class IoScheduler {
+
+    // ------------------------------------------------------------------------
+    // Class Variables
+    // ------------------------------------------------------------------------
+
+    // how far ahead of the cap a store can get after it's been idle
+    private static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final Store NONE = new Store("none", 0, 0);
+
+    // ------------------------------------------------------------------------
+    // Instance Variables
+    // ------------------------------------------------------------------------
+
+    // 0 is no limit
+    private int mDefaultThreads = 0;
+
+    private long mDefaultRate = 0;
+
+    // by store name or type
+    private final HashMap<String, Integer> mThreads = new HashMap<>();
+
+    private final HashMap<String, Long> mRates = new HashMap<>();
+
+    // work on files in the order they sit on disk
+    private boolean mOrdered = false;
+
+    private final ConcurrentHashMap<FileStore, Store> mStores = new ConcurrentHashMap<>();
+
+    // finding a file's store reads the mount table, so it's only done once per directory
+    private final ConcurrentHashMap<Path, Store> mDirectories = new ConcurrentHashMap<>();
+
+    // ------------------------------------------------------------------------
+    // Public Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * @param store the store's name or type, null for every store that isn't named
+     * @param threads the most files on the store worked on at once, 0 for no limit
+     */
+    public void setThreads(String store, int threads) {
+        if (store == null) {
+            mDefaultThreads = Math.max(0, threads);
+        } else {
+            mThreads.put(store, Math.max(0, threads));
+        }
+    }
+
+    /**
+     * @param store the store's name or type, null for every store that isn't named
+     * @param bytesPerSecond the most read or written on the store a second, 0 for no limit
+     */
+    public void setRate(String store, long bytesPerSecond) {
+        if (store == null) {
+            mDefaultRate = Math.max(0, bytesPerSecond);
+        } else {
+            mRates.put(store, Math.max(0, bytesPerSecond));
+        }
+    }
+
+    public boolean isOrdered() {
+        return mOrdered;
+    }
+
+    public void setOrdered(boolean ordered) {
+        mOrdered = ordered;
+    }
+
+    public boolean isLimited() {
+        return mDefaultThreads > 0 || mDefaultRate > 0 || !mThreads.isEmpty() || !mRates.isEmpty();
+    }
+
+    public Store getStore(Path file) {
+        if (!isLimited()) {
+            return NONE;
+        }
+
+        Path directory = file.toAbsolutePath().getParent();
+        return mDirectories.computeIfAbsent(directory != null ? directory : file, this::findStore);
+    }
+
+    /**
+     * where the file sits on disk, for sorting files so a disk reads them in one sweep: the inode on unix, which
+     * on most file systems follows where the file was written. 0 where there's no telling.
+     */
+    public static long diskOrder(Path file) {
+        try {
+            Object inode = Files.getAttribute(file, "unix:ino");
+            return inode instanceof Long ? (Long) inode : 0;
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * parses a size like 500K, 20M or 1G (powers of 1024), or plain bytes
+     */
+    public static long parseBytes(String value) {
+        String trimmed = value.trim().toUpperCase(Locale.ROOT);
+        long multiplier = 1;
+        if (trimmed.endsWith("K")) {
+            multiplier = 1024L;
+        } else if (trimmed.endsWith("M")) {
+            multiplier = 1024L * 1024;
+        } else if (trimmed.endsWith("G")) {
+            multiplier = 1024L * 1024 * 1024;
+        }
+        if (multiplier > 1) {
+            trimmed = trimmed.substring(0, trimmed.length() - 1);
+        }
+
+        long bytes = Long.parseLong(trimmed);
+        if (bytes < 0 || bytes > Long.MAX_VALUE / multiplier) {
+            throw new NumberFormatException("out of range: " + value);
+        }
+        return bytes * multiplier;
+    }
+
+    // ------------------------------------------------------------------------
+    // Private Methods
+    // ------------------------------------------------------------------------
+
+    private Store findStore(Path directory) {
+        FileStore fileStore;
+        try {
+            fileStore = Files.getFileStore(directory);
+        } catch (IOException e) {
+            // gone, or not readable. whatever's done with it will fail on its own, so only the defaults apply
+            return new Store(directory.toString(), mDefaultThreads, mDefaultRate);
+        }
+
+        return mStores.computeIfAbsent(fileStore, s -> new Store(s.name() + " (" + s.type() + ")",
+                lookup(mThreads, s, mDefaultThreads), lookup(mRates, s, mDefaultRate)));
+    }
+
+    private static <T> T lookup(HashMap<String, T> limits, FileStore fileStore, T defaultLimit) {
+        T limit = limits.get(fileStore.name());
+        if (limit == null) {
+            limit = limits.get(fileStore.type());
+        }
+        return limit != null ? limit : defaultLimit;
+    }
+
+    // ------------------------------------------------------------------------
+    // Store
+    // ------------------------------------------------------------------------
+
+    /*
+     * the limits of one FileStore. acquire() and release() go around the work on each file, throttle() goes around
+     * each channel opened on it, or consume() is told about bytes that don't go through a channel.
+     */
+    public static class Store {
+
+        private final String mName;
+
+        // null for no limit
+        private final Semaphore mPermits;
+
+        private final long mBytesPerSecond;
+
+        // when the bytes consumed so far have been paid for at the cap
+        private long mAvailableAt = Long.MIN_VALUE;
+
+        Store(String name, int threads, long bytesPerSecond) {
+            mName = name;
+            // fair, so files are started in the order they were asked for
+            mPermits = threads > 0 ? new Semaphore(threads, true) : null;
+            mBytesPerSecond = bytesPerSecond;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public boolean isLimited() {
+            return mPermits != null || mBytesPerSecond > 0;
+        }
+
+        /**
+         * @return nanoseconds spent waiting
+         */
+        public long acquire() throws InterruptedException {
+            if (mPermits == null) {
+                return 0;
+            }
+
+            if (mPermits.tryAcquire()) {
+                return 0;
+            }
+
+            long start = System.nanoTime();
+            mPermits.acquire();
+            return System.nanoTime() - start;
+        }
+
+        public void release() {
+            if (mPermits != null) {
+                mPermits.release();
+            }
+        }
+
+        // sleeps until the bytes fit under the cap. an interrupt stops the wait and is left set
+        public void consume(long bytes) {
+            if (mBytesPerSecond <= 0 || bytes <= 0) {
+                return;
+            }
+
+            long wait;
+            synchronized (this) {
+                long now = System.nanoTime();
+                long cost = (long) (bytes * 1e9 / mBytesPerSecond);
+                mAvailableAt = Math.max(mAvailableAt, now - BURST_NANOS) + cost;
+                wait = mAvailableAt - now;
+            }
+
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        public FileChannel throttle(FileChannel channel) {
+            return mBytesPerSecond > 0 ? new CountingFileChannel(channel, this::consume) : channel;
+        }
+
+        @Override
+        public String toString() {
+            return mName;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.thirtyonetensoftware.renamemediatool.support;
+
+/*
+ * the bits of JSON writing shared by the cli output, the change report and the metrics files
+ */
+public class Json {
+
+    // ------------------------------------------------------------------------
+    // Public Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * @return the value as a JSON string, in quotes
+     */
+    public static String quote(String value) {
+        return appendString(new StringBuilder(value.length() + 2), value).toString();
+    }
+
+    /**
+     * appends the value as a JSON string, in quotes
+     *
+     * @return builder, to chain appends
+     */
+    public static StringBuilder appendString(StringBuilder builder, String value) {
+        builder.append('"');
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    builder.append("\\\"");
+                    break;
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                case '\r':
+                    builder.append("\\r");
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        builder.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        builder.append(c);
+                    }
+            }
+        }
+
+        return builder.append('"');
+    }
+}
@@ -0,0 +1,126 @@
+package com.thirtyonetensoftware.renamemediatool.support;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * counts latencies in log-linear buckets, the way HdrHistogram does: values under 64ns get a bucket each, above that
+ * every power of two is split into 32 buckets, so any value is within about 3% of the bucket it's counted in. fixed
+ * size, and recording is a couple of atomic adds, so it can be shared by every thread without a lock.
+ */
+public class LatencyHistogram {
+
+    // ------------------------------------------------------------------------
+    // Class Variables
+    // ------------------------------------------------------------------------
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    // values below this get a bucket each
+    private static final int LINEAR = SUB_BUCKETS * 2;
+
+    private static final int BUCKETS = LINEAR + (63 - (SUB_BUCKET_BITS + 1)) * SUB_BUCKETS;
+
+    // ------------------------------------------------------------------------
+    // Instance Variables
+    // ------------------------------------------------------------------------
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong mCount = new AtomicLong();
+
+    private final AtomicLong mTotal = new AtomicLong();
+
+    private final AtomicLong mMax = new AtomicLong();
+
+    // ------------------------------------------------------------------------
+    // Public Methods
+    // ------------------------------------------------------------------------
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+
+        mCounts.incrementAndGet(index(value));
+        mCount.incrementAndGet();
+        mTotal.addAndGet(value);
+
+        long max = mMax.get();
+        while (value > max && !mMax.compareAndSet(max, value)) {
+            max = mMax.get();
+        }
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getMean() {
+        long count = mCount.get();
+        return count == 0 ? 0 : mTotal.get() / count;
+    }
+
+    public long getMax() {
+        return mMax.get();
+    }
+
+    /**
+     * @param percentile 0 to 100
+     * @return the highest value that could have been counted in the bucket the percentile falls in, never more than
+     * the max
+     */
+    public long getPercentile(double percentile) {
+        long count = mCount.get();
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mCounts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValue(i), mMax.get());
+            }
+        }
+
+        return mMax.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            mCounts.set(i, 0);
+        }
+        mCount.set(0);
+        mTotal.set(0);
+        mMax.set(0);
+    }
+
+    // ------------------------------------------------------------------------
+    // Private Methods
+    // ------------------------------------------------------------------------
+
+    private static int index(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+
+        int highestBit = 63 - Long.numberOfLeadingZeros(value);
+        int shift = highestBit - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+
+        return LINEAR + (highestBit - (SUB_BUCKET_BITS + 1)) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long highestValue(int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+
+        int highestBit = (index - LINEAR) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+        int shift = highestBit - SUB_BUCKET_BITS;
+        long subBucket = (index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
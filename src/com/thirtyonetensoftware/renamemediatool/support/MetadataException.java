@@ -0,0 +1,15 @@
+package com.thirtyonetensoftware.renamemediatool.support;
+
+// a file's metadata couldn't be read or written. the message is the one shown next to the file
+public class MetadataException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public MetadataException(String message) {
+        super(message);
+    }
+
+    public MetadataException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,61 @@
+package com.thirtyonetensoftware.renamemediatool.support;
+
+import com.thirtyonetensoftware.renamemediatool.DateSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+ * reads, and optionally writes, the date/time kept inside one file format. handlers are found with ServiceLoader,
+ * list them in META-INF/services/com.thirtyonetensoftware.renamemediatool.support.MetadataHandler.
+ *
+ * the start of every file is read once and offered to each handler in turn, the first one that recognises the magic
+ * bytes gets the file. so a handler only says how much of the header it needs, and never reads the header itself.
+ */
+public abstract class MetadataHandler {
+
+    /**
+     * @return how many bytes from the start of the file matches() looks at
+     */
+    public abstract int getHeaderSize();
+
+    /**
+     * @param header the start of the file, shorter than getHeaderSize() if the file is. use absolute gets only, the
+     *               same buffer is offered to the other handlers
+     */
+    public abstract boolean matches(ByteBuffer header);
+
+    /**
+     * @return the extensions of this format, lowercase with the dot. files with these are picked up by a scan
+     */
+    public abstract String[] getExtensions();
+
+    public abstract DateSource getDateSource();
+
+    /**
+     * @param channel open on the file, read it with positioned reads
+     * @param dateTimes the zone a date/time that doesn't say its offset is read in
+     * @return the date/time in epoch millis, or DateTimes.NONE if the file doesn't have one
+     */
+    public abstract long readDateTime(File file, FileChannel channel, DateTimes dateTimes)
+            throws IOException, MetadataException;
+
+    /**
+     * @return true if writeDateTime() writes this format's date/time. a scan notes it, so a commit knows whether
+     * there's anything to write without opening the file again
+     */
+    public boolean canWriteDateTime() {
+        return false;
+    }
+
+    /**
+     * @param dateTimes the zone to write in, if the file doesn't say its offset. the one it was read in
+     * @return false if this format's date/time can't be written, only the file's own times are changed then
+     */
+    public boolean writeDateTime(File file, long dateTime, DateTimes dateTimes)
+            throws IOException, MetadataException {
+        return false;
+    }
+}
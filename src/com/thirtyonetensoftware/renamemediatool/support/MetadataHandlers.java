@@ -0,0 +1,99 @@
+package com.thirtyonetensoftware.renamemediatool.support;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.ServiceLoader;
+
+/*
+ * the MetadataHandlers on the class path, in the order META-INF/services lists them
+ */
+public class MetadataHandlers {
+
+    // ------------------------------------------------------------------------
+    // Class Variables
+    // ------------------------------------------------------------------------
+
+    private static final List<MetadataHandler> mHandlers = load();
+
+    // enough for every handler, so one read does them all
+    private static final int HEADER_SIZE = headerSize();
+
+    private static final ThreadLocal<ByteBuffer> mHeaders = ThreadLocal.withInitial(() ->
+            ByteBuffer.allocate(HEADER_SIZE));
+
+    // ------------------------------------------------------------------------
+    // Public Methods
+    // ------------------------------------------------------------------------
+
+    public static List<MetadataHandler> getHandlers() {
+        return mHandlers;
+    }
+
+    /**
+     * reads the start of the file and offers it to each handler
+     *
+     * @return the handler for the file, or null if none of them recognise it
+     */
+    public static MetadataHandler find(FileChannel channel) throws IOException {
+        ByteBuffer header = mHeaders.get();
+        header.clear();
+
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                break;
+            }
+        }
+        header.flip();
+
+        for (MetadataHandler handler : mHandlers) {
+            if (handler.matches(header)) {
+                return handler;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @param filename lowercase
+     * @return true if a handler claims the filename's extension
+     */
+    public static boolean hasExtension(String filename) {
+        for (MetadataHandler handler : mHandlers) {
+            for (String extension : handler.getExtensions()) {
+                if (filename.endsWith(extension)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    // ------------------------------------------------------------------------
+    // Private Methods
+    // ------------------------------------------------------------------------
+
+    private static List<MetadataHandler> load() {
+        ArrayList<MetadataHandler> handlers = new ArrayList<>();
+        for (MetadataHandler handler : ServiceLoader.load(MetadataHandler.class,
+                MetadataHandler.class.getClassLoader())) {
+            handlers.add(handler);
+        }
+
+        return Collections.unmodifiableList(handlers);
+    }
+
+    private static int headerSize() {
+        int size = 1;
+        for (MetadataHandler handler : mHandlers) {
+            size = Math.max(size, handler.getHeaderSize());
+        }
+
+        return size;
+    }
+}
@@ -0,0 +1,390 @@
+package com.thirtyonetensoftware.renamemediatool.support;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/*
+ * counts and times what a scan and the commit after it do, so thread pools can be sized and slow mounts spotted.
+ * one instance covers one scan and its commit. it's shown over JMX while it runs, and each engine rewrites the
+ * summary file in ~/.renamemediatool/metrics when it finishes.
+ *
+ * everything is safe to update from any thread.
+ */
+public class Metrics implements MetricsMXBean {
+
+    // ------------------------------------------------------------------------
+    // Class Variables
+    // ------------------------------------------------------------------------
+
+    public static final String DATE_WRITE = "dateWrite";
+    public static final String RENAME = "rename";
+    public static final String FSYNC = "fsync";
+    // waiting for IoScheduler to let a file on a busy store start
+    public static final String IO_WAIT = "ioWait";
+
+    // what writeSkipped() counts
+    public static final String METADATA = "metadata";
+    public static final String LAST_MODIFIED = "lastModified";
+    public static final String DATE_CREATED = "dateCreated";
+
+    private static final Path METRICS_DIRECTORY = Paths.get(System.getProperty("user.home"), ".renamemediatool",
+            "metrics");
+
+    private static final String OBJECT_NAME = "com.thirtyonetensoftware.renamemediatool:type=Metrics";
+
+    // ------------------------------------------------------------------------
+    // Instance Variables
+    // ------------------------------------------------------------------------
+
+    // null if there's no summary file
+    private final Path mSummaryFile;
+
+    private final LongAdder mFilesScanned = new LongAdder();
+
+    private final LongAdder mBytesRead = new LongAdder();
+
+    private final LongAdder mDatesWritten = new LongAdder();
+
+    private final LongAdder mFilesRenamed = new LongAdder();
+
+    // sizes of the files whose date/time didn't have to be rewritten inside them
+    private final LongAdder mBytesNotRewritten = new LongAdder();
+
+    // 0 until the phase starts, and until it ends
+    private volatile long mScanStart, mScanEnd, mCommitStart, mCommitEnd;
+
+    private final Map<String, LatencyHistogram> mLatencies = new ConcurrentHashMap<>();
+
+    private final Map<String, LongAdder> mErrors = new ConcurrentHashMap<>();
+
+    // by what wasn't written: metadata, lastModified, dateCreated
+    private final Map<String, LongAdder> mWritesSkipped = new ConcurrentHashMap<>();
+
+    private volatile FilenameMatcher mFilenameMatcher;
+
+    // ------------------------------------------------------------------------
+    // Constructors
+    // ------------------------------------------------------------------------
+
+    /**
+     * @param summaryFile where writeSummary() writes, null for nowhere
+     */
+    public Metrics(Path summaryFile) {
+        mSummaryFile = summaryFile;
+    }
+
+    /**
+     * @return metrics with their own summary file, shown over JMX in place of the last run's
+     */
+    public static Metrics forRun() {
+        String stamp = DateTimes.STAMP_FORMAT.format(LocalDateTime.now());
+        String name = "metrics-" + stamp + "-" + UUID.randomUUID().toString().substring(0, 8) + ".json";
+
+        Metrics metrics = new Metrics(METRICS_DIRECTORY.resolve(name));
+        metrics.register();
+        return metrics;
+    }
+
+    // ------------------------------------------------------------------------
+    // Public Methods
+    // ------------------------------------------------------------------------
+
+    public void startScan() {
+        mScanStart = System.nanoTime();
+    }
+
+    public void endScan() {
+        mScanEnd = System.nanoTime();
+    }
+
+    public void startCommit() {
+        mCommitStart = System.nanoTime();
+    }
+
+    public void endCommit() {
+        mCommitEnd = System.nanoTime();
+    }
+
+    public void fileScanned() {
+        mFilesScanned.increment();
+    }
+
+    public void dateWritten() {
+        mDatesWritten.increment();
+    }
+
+    public void fileRenamed() {
+        mFilesRenamed.increment();
+    }
+
+    // a date/time that was already right, so it wasn't written
+    public void writeSkipped(String target) {
+        mWritesSkipped.computeIfAbsent(target, n -> new LongAdder()).increment();
+    }
+
+    public void addBytesNotRewritten(long bytes) {
+        mBytesNotRewritten.add(bytes);
+    }
+
+    public void addBytesRead(long bytes) {
+        mBytesRead.add(bytes);
+    }
+
+    // counts everything read through the channel
+    public FileChannel count(FileChannel channel) {
+        return new CountingFileChannel(channel, mBytesRead::add);
+    }
+
+    public LatencyHistogram latency(String name) {
+        return mLatencies.computeIfAbsent(name, n -> new LatencyHistogram());
+    }
+
+    public void error(Throwable e) {
+        mErrors.computeIfAbsent(e.getClass().getSimpleName(), n -> new LongAdder()).increment();
+    }
+
+    // for the tester hit rates
+    public void setFilenameMatcher(FilenameMatcher filenameMatcher) {
+        mFilenameMatcher = filenameMatcher;
+    }
+
+    public Path getSummaryFile() {
+        return mSummaryFile;
+    }
+
+    /**
+     * writes everything so far to the summary file as one JSON object, replacing what was there
+     */
+    public void writeSummary() throws IOException {
+        if (mSummaryFile == null) {
+            return;
+        }
+
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"filesScanned\": ").append(getFilesScanned()).append(",\n");
+        json.append("  \"bytesRead\": ").append(getBytesRead()).append(",\n");
+        json.append("  \"scanSeconds\": ").append(format(getScanSeconds())).append(",\n");
+        json.append("  \"scanFilesPerSecond\": ").append(format(getScanFilesPerSecond())).append(",\n");
+        json.append("  \"datesWritten\": ").append(getDatesWritten()).append(",\n");
+        json.append("  \"filesRenamed\": ").append(getFilesRenamed()).append(",\n");
+        json.append("  \"bytesNotRewritten\": ").append(getBytesNotRewritten()).append(",\n");
+        json.append("  \"commitSeconds\": ").append(format(getCommitSeconds())).append(",\n");
+        json.append("  \"commitFilesPerSecond\": ").append(format(getCommitFilesPerSecond())).append(",\n");
+
+        json.append("  \"testerHitRates\": {");
+        appendEntries(json, getTesterHitRates(), "    ");
+        json.append("},\n");
+
+        json.append("  \"writesSkipped\": {");
+        appendEntries(json, getWritesSkipped(), "    ");
+        json.append("},\n");
+
+        json.append("  \"errors\": {");
+        appendEntries(json, getErrorCounts(), "    ");
+        json.append("},\n");
+
+        json.append("  \"latencyMicros\": {");
+        String separator = "\n";
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(mLatencies).entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            Json.appendString(json.append(separator).append("    "), entry.getKey()).append(": {")
+                    .append("\"count\": ").append(histogram.getCount())
+                    .append(", \"mean\": ").append(micros(histogram.getMean()))
+                    .append(", \"p50\": ").append(micros(histogram.getPercentile(50)))
+                    .append(", \"p90\": ").append(micros(histogram.getPercentile(90)))
+                    .append(", \"p99\": ").append(micros(histogram.getPercentile(99)))
+                    .append(", \"max\": ").append(micros(histogram.getMax())).append('}');
+            separator = ",\n";
+        }
+        json.append(mLatencies.isEmpty() ? "" : "\n  ").append("}\n}\n");
+
+        Files.createDirectories(mSummaryFile.getParent());
+        Files.write(mSummaryFile, json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    // ------------------------------------------------------------------------
+    // MetricsMXBean Interface
+    // ------------------------------------------------------------------------
+
+    @Override
+    public long getFilesScanned() {
+        return mFilesScanned.sum();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return mBytesRead.sum();
+    }
+
+    @Override
+    public double getScanSeconds() {
+        return seconds(mScanStart, mScanEnd);
+    }
+
+    @Override
+    public double getScanFilesPerSecond() {
+        return perSecond(getFilesScanned(), getScanSeconds());
+    }
+
+    @Override
+    public long getDatesWritten() {
+        return mDatesWritten.sum();
+    }
+
+    @Override
+    public long getFilesRenamed() {
+        return mFilesRenamed.sum();
+    }
+
+    @Override
+    public long getBytesNotRewritten() {
+        return mBytesNotRewritten.sum();
+    }
+
+    @Override
+    public Map<String, Long> getWritesSkipped() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : mWritesSkipped.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().sum());
+        }
+        return counts;
+    }
+
+    @Override
+    public double getCommitSeconds() {
+        return seconds(mCommitStart, mCommitEnd);
+    }
+
+    @Override
+    public double getCommitFilesPerSecond() {
+        return perSecond(getDatesWritten() + getFilesRenamed(), getCommitSeconds());
+    }
+
+    @Override
+    public Map<String, Double> getTesterHitRates() {
+        Map<String, Double> rates = new TreeMap<>();
+
+        FilenameMatcher matcher = mFilenameMatcher;
+        if (matcher != null) {
+            long parses = matcher.getParses();
+            for (int i = 0; i < matcher.getTesterCount(); i++) {
+                rates.put(matcher.getTesterName(i), parses == 0 ? 0 : (double) matcher.getHits(i) / parses);
+            }
+        }
+
+        return rates;
+    }
+
+    @Override
+    public Map<String, Long> getErrorCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : mErrors.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().sum());
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getLatencyCounts() {
+        return latencies(LatencyHistogram::getCount);
+    }
+
+    @Override
+    public Map<String, Long> getLatencyMeanMicros() {
+        return latencies(histogram -> micros(histogram.getMean()));
+    }
+
+    @Override
+    public Map<String, Long> getLatencyP50Micros() {
+        return latencies(histogram -> micros(histogram.getPercentile(50)));
+    }
+
+    @Override
+    public Map<String, Long> getLatencyP99Micros() {
+        return latencies(histogram -> micros(histogram.getPercentile(99)));
+    }
+
+    @Override
+    public Map<String, Long> getLatencyMaxMicros() {
+        return latencies(histogram -> micros(histogram.getMax()));
+    }
+
+    // ------------------------------------------------------------------------
+    // Private Methods
+    // ------------------------------------------------------------------------
+
+    // replaces the last run's, JMX is only for watching the current one
+    private void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+
+            try {
+                server.unregisterMBean(name);
+            } catch (InstanceNotFoundException e) {
+                // first run
+            }
+            server.registerMBean(this, name);
+        } catch (JMException | SecurityException e) {
+            // the summary file is still written
+        }
+    }
+
+    private Map<String, Long> latencies(ToLongFunction<LatencyHistogram> value) {
+        Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : mLatencies.entrySet()) {
+            values.put(entry.getKey(), value.applyAsLong(entry.getValue()));
+        }
+        return values;
+    }
+
+    // up to now if the phase is still running
+    private static double seconds(long start, long end) {
+        if (start == 0) {
+            return 0;
+        }
+        return ((end != 0 ? end : System.nanoTime()) - start) / 1e9;
+    }
+
+    private static double perSecond(long count, double seconds) {
+        return seconds <= 0 ? 0 : count / seconds;
+    }
+
+    private static long micros(long nanos) {
+        return nanos / 1000;
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static void appendEntries(StringBuilder json, Map<String, ? extends Number> entries, String indent) {
+        String separator = "\n";
+        for (Map.Entry<String, ? extends Number> entry : entries.entrySet()) {
+            Number value = entry.getValue();
+            Json.appendString(json.append(separator).append(indent), entry.getKey()).append(": ")
+                    .append(value instanceof Double ? format(value.doubleValue()) : value.toString());
+            separator = ",\n";
+        }
+        if (!entries.isEmpty()) {
+            json.append("\n  ");
+        }
+    }
+}
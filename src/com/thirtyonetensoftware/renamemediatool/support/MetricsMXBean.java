@@ -0,0 +1,48 @@
+package com.thirtyonetensoftware.renamemediatool.support;
+
+import java.util.Map;
+
+/*
+ * what Metrics shows over JMX, under com.thirtyonetensoftware.renamemediatool:type=Metrics. latencies are keyed by
+ * what was timed: read.<DateSource> for reading a date/time out of a file, dateWrite, rename and fsync.
+ */
+public interface MetricsMXBean {
+
+    long getFilesScanned();
+
+    long getBytesRead();
+
+    double getScanSeconds();
+
+    double getScanFilesPerSecond();
+
+    long getDatesWritten();
+
+    long getFilesRenamed();
+
+    // sizes of the files whose date/time was already right inside them, so they weren't rewritten
+    long getBytesNotRewritten();
+
+    // date/times that were already right and weren't written, by metadata, lastModified and dateCreated
+    Map<String, Long> getWritesSkipped();
+
+    double getCommitSeconds();
+
+    double getCommitFilesPerSecond();
+
+    // the fraction of parsed filenames each FilenameTester's date was taken from
+    Map<String, Double> getTesterHitRates();
+
+    // by exception class
+    Map<String, Long> getErrorCounts();
+
+    Map<String, Long> getLatencyCounts();
+
+    Map<String, Long> getLatencyMeanMicros();
+
+    Map<String, Long> getLatencyP50Micros();
+
+    Map<String, Long> getLatencyP99Micros();
+
+    Map<String, Long> getLatencyMaxMicros();
+}
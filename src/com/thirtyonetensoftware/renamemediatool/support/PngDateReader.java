@@ -0,0 +1,97 @@
+package com.thirtyonetensoftware.renamemediatool.support;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/*
+ * reads a png's date/time from its chunks: the EXIF in an eXIf chunk if there is one, otherwise the tIME chunk. only
+ * chunk headers are read on the way, the image data is skipped.
+ */
+public class PngDateReader {
+
+    // ------------------------------------------------------------------------
+    // Class Variables
+    // ------------------------------------------------------------------------
+
+    private static final int SIGNATURE_SIZE = 8;
+
+    private static final int TYPE_EXIF = VideoDateReader.type("eXIf");
+    private static final int TYPE_TIME = VideoDateReader.type("tIME");
+    private static final int TYPE_IEND = VideoDateReader.type("IEND");
+
+    // an eXIf with thumbnails can be big, but not this big
+    private static final int MAX_EXIF_SIZE = 1024 * 1024;
+
+    // ------------------------------------------------------------------------
+    // Public Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * @param dateTimes the zone an eXIf date/time that doesn't say its offset is read in
+     * @return the date/time in epoch millis, or DateTimes.NONE if the png doesn't have one
+     */
+    public static long readDateTime(FileChannel channel, DateTimes dateTimes) throws IOException, MetadataException {
+        long size = channel.size();
+        long position = SIGNATURE_SIZE;
+        long modified = DateTimes.NONE;
+
+        while (position + 8 <= size) {
+            ByteBuffer header = VideoDateReader.read(channel, position, 8);
+            if (header.remaining() < 8) {
+                break;
+            }
+
+            long length = header.getInt(0) & 0xFFFFFFFFL;
+            int type = header.getInt(4);
+            long data = position + 8;
+            if (data + length > size) {
+                break;
+            }
+
+            if (type == TYPE_EXIF && length <= MAX_EXIF_SIZE) {
+                String value;
+                try {
+                    value = ExifDateReader.readDateTime(VideoDateReader.read(channel, data, (int) length));
+                } catch (ExifDateReader.MalformedExifException e) {
+                    // tIME will have to do
+                    value = null;
+                }
+
+                if (value != null) {
+                    return ExifDateReader.parseDateTime(value, dateTimes);
+                }
+            } else if (type == TYPE_TIME && length == 7) {
+                modified = readTime(VideoDateReader.read(channel, data, 7));
+            } else if (type == TYPE_IEND) {
+                break;
+            }
+
+            // data and crc
+            position = data + length + 4;
+        }
+
+        return modified;
+    }
+
+    // ------------------------------------------------------------------------
+    // Private Methods
+    // ------------------------------------------------------------------------
+
+    // 2 byte year, then month, day, hour, minute and second, in UTC
+    private static long readTime(ByteBuffer time) {
+        if (time.remaining() < 7) {
+            return DateTimes.NONE;
+        }
+
+        try {
+            return LocalDateTime.of(time.getShort(0) & 0xFFFF, time.get(2), time.get(3), time.get(4), time.get(5),
+                    time.get(6)).toInstant(ZoneOffset.UTC).toEpochMilli();
+        } catch (DateTimeException e) {
+            return DateTimes.NONE;
+        }
+    }
+}
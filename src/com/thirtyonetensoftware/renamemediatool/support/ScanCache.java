@@ -0,0 +1,303 @@
+package com.thirtyonetensoftware.renamemediatool.support;
+
+import com.thirtyonetensoftware.renamemediatool.DateSource;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZoneId;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * remembers the date/time resolved for each file of a scanned directory, so a rescan only has to read the files
+ * that changed. an entry is only used if the file's size and last modified are the same as when it was stored.
+ *
+ * the cache for a root directory is kept in ~/.renamemediatool/cache, named after a hash of the root's path.
+ */
+public class ScanCache {
+
+    // ------------------------------------------------------------------------
+    // Class Variables
+    // ------------------------------------------------------------------------
+
+    private static final int MAGIC = 0x524d5443; // RMTC
+
+    // bump this when the entry layout, or the way dates are resolved, changes
+    private static final int VERSION = 7;
+
+    private static final int HASH_SIZE = 20;
+
+    private static final Path CACHE_DIRECTORY = Paths.get(System.getProperty("user.home"), ".renamemediatool",
+            "cache");
+
+    // ------------------------------------------------------------------------
+    // Instance Variables
+    // ------------------------------------------------------------------------
+
+    private final Path mRoot;
+
+    private final Path mCacheFile;
+
+    // local date/times in the cache were read in it, a cache from another zone is ignored
+    private final ZoneId mZone;
+
+    // entries read from disk
+    private final Map<String, Entry> mEntries = new ConcurrentHashMap<>();
+
+    // entries seen during this scan, so deleted files drop out of the cache
+    private final Map<String, Entry> mSeen = new ConcurrentHashMap<>();
+
+    private final AtomicInteger mHits = new AtomicInteger();
+
+    private final AtomicInteger mMisses = new AtomicInteger();
+
+    // ------------------------------------------------------------------------
+    // Constructors
+    // ------------------------------------------------------------------------
+
+    /**
+     * @param zone the zone the scan reads local date/times in
+     */
+    public ScanCache(File root, File cacheFile, ZoneId zone) {
+        mRoot = root.toPath().toAbsolutePath();
+        mCacheFile = cacheFile.toPath();
+        mZone = zone;
+    }
+
+    public static ScanCache forDirectory(File root, ZoneId zone) {
+        String name = hash(root.toPath().toAbsolutePath().toString()) + ".cache";
+        return new ScanCache(root, CACHE_DIRECTORY.resolve(name).toFile(), zone);
+    }
+
+    // ------------------------------------------------------------------------
+    // Public Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * reads the cache file, if there is one. a cache written by another version is ignored, and so is one written in
+     * another zone, since local date/times in it were read in that zone.
+     */
+    public void load() throws IOException {
+        mEntries.clear();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(mCacheFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || !in.readUTF().equals(mZone.getId())) {
+                return;
+            }
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                Entry entry = new Entry(in.readLong(), in.readLong(), in.readLong(),
+                        DateSource.values()[in.readByte()], in.readLong(), in.readLong(), in.readBoolean());
+                entry.quickHash = readHash(in);
+                entry.fullHash = readHash(in);
+                mEntries.put(path, entry);
+            }
+        } catch (NoSuchFileException e) {
+            // first scan of this directory
+        } catch (EOFException | ArrayIndexOutOfBoundsException e) {
+            // a truncated or corrupt cache is just a slower scan
+            mEntries.clear();
+        }
+    }
+
+    /**
+     * writes the cache file. if the scan didn't finish, entries that weren't seen are kept as well.
+     */
+    public void save(boolean complete) throws IOException {
+        Map<String, Entry> entries = mSeen;
+        if (!complete) {
+            entries = new ConcurrentHashMap<>(mEntries);
+            entries.putAll(mSeen);
+        }
+
+        Files.createDirectories(mCacheFile.getParent());
+        Path tempFile = mCacheFile.resolveSibling(mCacheFile.getFileName() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(mZone.getId());
+            out.writeInt(entries.size());
+
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                Entry value = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeLong(value.size);
+                out.writeLong(value.lastModified);
+                out.writeLong(value.dateTime);
+                out.writeByte(value.source.ordinal());
+                out.writeLong(value.creationTime);
+                out.writeLong(value.metadataDateTime);
+                out.writeBoolean(value.metadataWritable);
+                writeHash(out, value.quickHash);
+                writeHash(out, value.fullHash);
+            }
+        }
+
+        try {
+            Files.move(tempFile, mCacheFile, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile, mCacheFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * @return the cached entry for the file, or null if there isn't one or the file has changed since
+     */
+    public Entry get(File file, long size, long lastModified) {
+        String key = key(file);
+        Entry entry = mEntries.get(key);
+
+        if (entry == null || entry.size != size || entry.lastModified != lastModified) {
+            mMisses.incrementAndGet();
+            return null;
+        }
+
+        mHits.incrementAndGet();
+        mSeen.put(key, entry);
+        return entry;
+    }
+
+    public void put(File file, long size, long lastModified, long dateTime, DateSource source, long creationTime,
+                    long metadataDateTime, boolean metadataWritable) {
+        mSeen.put(key(file), new Entry(size, lastModified, dateTime, source, creationTime, metadataDateTime,
+                metadataWritable));
+    }
+
+    /**
+     * @return the entry stored for the file during this scan, else the one read from disk, or null if there isn't
+     * one or the file has changed. doesn't count as a hit or miss
+     */
+    public Entry peek(File file, long size, long lastModified) {
+        String key = key(file);
+        Entry entry = mSeen.get(key);
+        if (entry == null) {
+            entry = mEntries.get(key);
+        }
+        return entry == null || entry.size != size || entry.lastModified != lastModified ? null : entry;
+    }
+
+    /**
+     * keeps the duplicate detection hashes with the file's entry. an entry read from disk takes them along when
+     * get() finds it for this scan
+     *
+     * @return false if the file has no entry yet, it has to be put again once it does
+     */
+    public boolean putHashes(File file, long size, long lastModified, byte[] quickHash, byte[] fullHash) {
+        Entry entry = peek(file, size, lastModified);
+        if (entry == null) {
+            return false;
+        }
+
+        entry.quickHash = quickHash;
+        entry.fullHash = fullHash;
+        return true;
+    }
+
+    public int getHits() {
+        return mHits.get();
+    }
+
+    public int getMisses() {
+        return mMisses.get();
+    }
+
+    // ------------------------------------------------------------------------
+    // Private Methods
+    // ------------------------------------------------------------------------
+
+    private String key(File file) {
+        Path path = file.toPath().toAbsolutePath();
+        return path.startsWith(mRoot) ? mRoot.relativize(path).toString() : path.toString();
+    }
+
+    private static byte[] readHash(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+
+        byte[] hash = new byte[HASH_SIZE];
+        in.readFully(hash);
+        return hash;
+    }
+
+    private static void writeHash(DataOutputStream out, byte[] hash) throws IOException {
+        out.writeBoolean(hash != null);
+        if (hash != null) {
+            out.write(hash, 0, HASH_SIZE);
+        }
+    }
+
+    private static String hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(value.getBytes(StandardCharsets.UTF_8));
+
+            StringBuilder builder = new StringBuilder();
+            for (byte b : digest) {
+                builder.append(String.format("%02x", b));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM has SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Entry
+    // ------------------------------------------------------------------------
+
+    public static class Entry {
+
+        public final long size;
+
+        public final long lastModified;
+
+        public final long dateTime;
+
+        public final DateSource source;
+
+        // DateTimes.NONE if the file system doesn't have one
+        public final long creationTime;
+
+        // the date/time kept inside the file, DateTimes.NONE if it hasn't got one
+        public final long metadataDateTime;
+
+        // true if the file's format keeps a date/time that a commit can write
+        public final boolean metadataWritable;
+
+        // SHA-1s from duplicate detection, null until they've been worked out
+        public volatile byte[] quickHash;
+
+        public volatile byte[] fullHash;
+
+        Entry(long size, long lastModified, long dateTime, DateSource source, long creationTime,
+              long metadataDateTime, boolean metadataWritable) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.dateTime = dateTime;
+            this.source = source;
+            this.creationTime = creationTime;
+            this.metadataDateTime = metadataDateTime;
+            this.metadataWritable = metadataWritable;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.thirtyonetensoftware.renamemediatool.support;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/*
+ * reads the creation date/time of an mp4 / mov (ISO base media) file from its boxes. only box headers are read on
+ * the way to moov, so mdat is skipped with one seek wherever it is, and inside moov only mvhd and udta are read. a
+ * clip of several GB costs a few hundred bytes of I/O.
+ *
+ * udta/©day is preferred when it's there, it's the local time the camera recorded and usually has the zone.
+ * otherwise mvhd's creation_time, which is UTC.
+ */
+public class VideoDateReader {
+
+    // ------------------------------------------------------------------------
+    // Class Variables
+    // ------------------------------------------------------------------------
+
+    private static final int TYPE_MOOV = type("moov");
+    private static final int TYPE_MVHD = type("mvhd");
+    private static final int TYPE_UDTA = type("udta");
+    private static final int TYPE_DAY = type("\u00a9day");
+
+    // udta is a handful of small atoms, anything bigger is skipped
+    private static final int MAX_UDTA_SIZE = 64 * 1024;
+
+    // mvhd times are seconds since 1904-01-01 UTC
+    private static final long SECONDS_1904_TO_1970 = 2082844800L;
+
+    private static final DateTimeFormatter[] ZONED_FORMATS = {
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ssXXX"),
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ssXX"),
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ssX")
+    };
+
+    private static final DateTimeFormatter LOCAL_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+
+    // ------------------------------------------------------------------------
+    // Public Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * @param dateTimes the zone a date/time that doesn't say its offset is read in
+     * @return the creation date/time in epoch millis, or DateTimes.NONE if the file doesn't have one this reader understands
+     */
+    public static long readDateTime(File file, DateTimes dateTimes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return readDateTime(channel, dateTimes);
+        }
+    }
+
+    public static long readDateTime(FileChannel channel, DateTimes dateTimes) throws IOException {
+        long[] moov = findBox(channel, 0, channel.size(), TYPE_MOOV);
+        if (moov == null) {
+            return DateTimes.NONE;
+        }
+
+        long dateTime = DateTimes.NONE;
+
+        long[] udta = findBox(channel, moov[0], moov[1], TYPE_UDTA);
+        if (udta != null && udta[1] - udta[0] <= MAX_UDTA_SIZE) {
+            dateTime = readDay(read(channel, udta[0], (int) (udta[1] - udta[0])), dateTimes);
+        }
+
+        if (dateTime == DateTimes.NONE) {
+            long[] mvhd = findBox(channel, moov[0], moov[1], TYPE_MVHD);
+            if (mvhd != null) {
+                // version and flags, then creation_time is all that's needed
+                dateTime = readCreationTime(read(channel, mvhd[0], (int) Math.min(mvhd[1] - mvhd[0], 12)));
+            }
+        }
+
+        return dateTime;
+    }
+
+    // ------------------------------------------------------------------------
+    // Package Methods
+    // ------------------------------------------------------------------------
+
+    static int type(String type) {
+        byte[] bytes = type.getBytes(StandardCharsets.ISO_8859_1);
+        return ByteBuffer.wrap(bytes).getInt();
+    }
+
+    /*
+     * walks the boxes between start and end reading only their headers.
+     *
+     * returns the start and end of the box's contents, or null if it isn't there
+     */
+    static long[] findBox(FileChannel channel, long start, long end, int type) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(16);
+        long position = start;
+
+        while (position + 8 <= end) {
+            header.clear();
+            header.limit((int) Math.min(16, end - position));
+            readFully(channel, header, position);
+            if (header.position() < 8) {
+                return null;
+            }
+
+            long boxSize = header.getInt(0) & 0xFFFFFFFFL;
+            int boxType = header.getInt(4);
+            int headerSize = 8;
+
+            if (boxSize == 1) {
+                // 64 bit size follows the type
+                if (header.position() < 16) {
+                    return null;
+                }
+                boxSize = header.getLong(8);
+                headerSize = 16;
+            } else if (boxSize == 0) {
+                // runs to the end
+                boxSize = end - position;
+            }
+
+            if (boxSize < headerSize || position + boxSize > end) {
+                // broken, or a box cut short by a copy that didn't finish
+                return null;
+            }
+
+            if (boxType == type) {
+                return new long[]{position + headerSize, position + boxSize};
+            }
+
+            position += boxSize;
+        }
+
+        return null;
+    }
+
+    static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        readFully(channel, buffer, position);
+        buffer.flip();
+        return buffer;
+    }
+
+    // ------------------------------------------------------------------------
+    // Private Methods
+    // ------------------------------------------------------------------------
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return;
+            }
+        }
+    }
+
+    private static long readCreationTime(ByteBuffer mvhd) {
+        if (mvhd.remaining() < 8) {
+            return DateTimes.NONE;
+        }
+
+        int version = mvhd.get(0) & 0xFF;
+        long seconds;
+        if (version == 1) {
+            if (mvhd.remaining() < 12) {
+                return DateTimes.NONE;
+            }
+            seconds = mvhd.getLong(4);
+        } else {
+            seconds = mvhd.getInt(4) & 0xFFFFFFFFL;
+        }
+
+        // 0 is what most encoders write when they don't know
+        if (seconds == 0) {
+            return DateTimes.NONE;
+        }
+
+        return (seconds - SECONDS_1904_TO_1970) * 1000;
+    }
+
+    // ©day is a quicktime string atom: 2 byte length, 2 byte language, then the text
+    private static long readDay(ByteBuffer udta, DateTimes dateTimes) {
+        int position = 0;
+
+        while (position + 8 <= udta.limit()) {
+            long size = udta.getInt(position) & 0xFFFFFFFFL;
+            if (size < 8 || position + size > udta.limit()) {
+                return DateTimes.NONE;
+            }
+
+            if (udta.getInt(position + 4) == TYPE_DAY && size >= 12) {
+                int length = Math.min(udta.getShort(position + 8) & 0xFFFF, (int) size - 12);
+                byte[] bytes = new byte[length];
+                for (int i = 0; i < length; i++) {
+                    bytes[i] = udta.get(position + 12 + i);
+                }
+                return parseDay(new String(bytes, StandardCharsets.UTF_8).trim(), dateTimes);
+            }
+
+            position += (int) size;
+        }
+
+        return DateTimes.NONE;
+    }
+
+    private static long parseDay(String value, DateTimes dateTimes) {
+        for (DateTimeFormatter format : ZONED_FORMATS) {
+            try {
+                return OffsetDateTime.parse(value, format).toInstant().toEpochMilli();
+            } catch (DateTimeParseException e) {
+                // try the next one
+            }
+        }
+
+        try {
+            return dateTimes.toEpochMillis(LocalDateTime.parse(value, LOCAL_FORMAT));
+        } catch (DateTimeParseException e) {
+            // try the date on its own
+        }
+
+        try {
+            // noon, like the filename testers do for a date without a time
+            return dateTimes.toEpochMillis(LocalDate.parse(value).atTime(12, 0));
+        } catch (DateTimeParseException e) {
+            return DateTimes.NONE;
+        }
+    }
+}